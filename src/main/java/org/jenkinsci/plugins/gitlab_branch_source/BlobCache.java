@@ -0,0 +1,393 @@
+package org.jenkinsci.plugins.gitlab_branch_source;
+
+import hudson.Util;
+import jenkins.model.Jenkins;
+import org.gitlab.api.GitlabAPI;
+import org.gitlab.api.models.GitlabProject;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps the content of the blobs read through {@link GitLabSCMFile} in
+ * {@code $JENKINS_HOME/gitlab-branch-source/blobs}, by blob id.
+ * <p>
+ * A blob id is the hash of its content, so an entry never goes stale and is shared by every branch and project with
+ * the same file (typically the same {@code Jenkinsfile}); it is also how downloads and the entries left by a previous
+ * run are checked before use. Entries are read through memory mapping, and the least recently used ones are evicted
+ * once {@code org.jenkinsci.plugins.gitlab_branch_source.BlobCache.maxMegabytes} is reached, except those still being
+ * read, which are evicted once their streams are closed. The counters of the cache are logged at {@code FINE}.
+ */
+final class BlobCache {
+    private static final Logger LOGGER = Logger.getLogger(BlobCache.class.getName());
+
+    private static final long MAX_BYTES =
+            Long.getLong(BlobCache.class.getName() + ".maxMegabytes", 256) * 1024 * 1024;
+
+    private static final Pattern BLOB_ID = Pattern.compile("[0-9a-f]{40}");
+
+    private static BlobCache instance;
+
+    /**
+     * Fetches the content of a blob that is not in the cache.
+     */
+    interface Download {
+        @Nonnull
+        InputStream open() throws IOException, InterruptedException;
+    }
+
+    private final File root;
+    private final long maxBytes;
+    /**
+     * The entries by blob id, least recently used first.
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+    private boolean loaded;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    BlobCache(@Nonnull File root, long maxBytes) {
+        this.root = root;
+        this.maxBytes = maxBytes;
+    }
+
+    static synchronized BlobCache get() {
+        if (instance == null) {
+            instance = new BlobCache(
+                    new File(new File(Jenkins.getActiveInstance().getRootDir(), "gitlab-branch-source"), "blobs"),
+                    MAX_BYTES);
+        }
+        return instance;
+    }
+
+    /**
+     * The content of a blob, from the cache if possible.
+     *
+     * @param name what to call the blob in error messages, typically its path.
+     */
+    @Nonnull
+    InputStream open(@Nonnull final GitlabAPI api, @Nonnull final GitlabProject repo, @Nonnull final String blobId,
+                     @Nonnull final String name) throws IOException, InterruptedException {
+        return open(blobId, new Download() {
+            @Nonnull
+            @Override
+            public InputStream open() throws IOException, InterruptedException {
+                return RawBlobStream.open(api, repo, blobId, name);
+            }
+        });
+    }
+
+    /**
+     * The content of a blob, from the cache if possible, which the caller is expected to close.
+     */
+    @Nonnull
+    InputStream open(@Nonnull String blobId, @Nonnull Download download) throws IOException, InterruptedException {
+        if (maxBytes <= 0 || !BLOB_ID.matcher(blobId).matches()) {
+            return download.open();
+        }
+        File file = getFile(blobId);
+        InputStream cached = lookup(blobId, file);
+        if (cached != null) {
+            return cached;
+        }
+        File tmp = new File(file.getPath() + ".tmp" + Thread.currentThread().getId());
+        File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        try (InputStream in = download.open();
+             OutputStream out = new FileOutputStream(tmp)) {
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) >= 0) {
+                out.write(buf, 0, n);
+            }
+        } catch (IOException e) {
+            delete(tmp);
+            throw e;
+        }
+        if (!blobId.equals(hash(tmp))) {
+            delete(tmp);
+            throw new IOException("The content downloaded for blob " + blobId + " does not match its id");
+        }
+        if (!tmp.renameTo(file) && !file.isFile()) {
+            delete(tmp);
+            throw new IOException("Could not move " + tmp + " to " + file);
+        }
+        delete(tmp); // in case another thread got there first
+        Entry entry = store(blobId, file.length());
+        try {
+            return new EntryInputStream(entry, map(file));
+        } catch (IOException e) {
+            release(entry);
+            throw e;
+        }
+    }
+
+    @CheckForNull
+    private InputStream lookup(String blobId, File file) {
+        Entry entry;
+        boolean verified;
+        synchronized (this) {
+            load();
+            entry = entries.get(blobId);
+            if (entry == null) {
+                misses++;
+                return null;
+            }
+            entry.readers++;
+            verified = entry.verified;
+        }
+        try {
+            // a partial or damaged file, e.g. left by a crash, is downloaded again
+            if (file.length() != entry.length || (!verified && !blobId.equals(hash(file)))) {
+                throw new IOException(file + " does not hold blob " + blobId);
+            }
+            InputStream in = new EntryInputStream(entry, map(file));
+            synchronized (this) {
+                entry.verified = true;
+                hits++;
+            }
+            return in;
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Dropping cache entry " + blobId, e);
+            synchronized (this) {
+                entry.readers--;
+                if (entries.get(blobId) == entry) {
+                    entries.remove(blobId);
+                    size -= entry.length;
+                    delete(file);
+                }
+                misses++;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Adds an entry, or reuses the one another download of the same blob added, for a new reader.
+     */
+    private synchronized Entry store(String blobId, long length) {
+        Entry entry = entries.get(blobId);
+        if (entry == null) {
+            entry = new Entry(blobId, length);
+            entry.verified = true;
+            entries.put(blobId, entry);
+            size += length;
+        }
+        entry.readers++;
+        trim();
+        return entry;
+    }
+
+    private synchronized void release(Entry entry) {
+        entry.readers--;
+        trim();
+    }
+
+    /**
+     * Evicts the least recently used entries that are not being read until the cache fits.
+     */
+    private synchronized void trim() {
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext() && size > maxBytes; ) {
+            Entry eldest = it.next();
+            if (eldest.readers > 0) {
+                continue; // still mapped, and deleting it would fail on Windows
+            }
+            it.remove();
+            size -= eldest.length;
+            evictions++;
+            delete(getFile(eldest.blobId));
+        }
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.log(Level.FINE, "GitLab blob cache: {0} entries, {1} bytes, {2} hits, {3} misses, {4} evictions",
+                    new Object[]{entries.size(), size, hits, misses, evictions});
+        }
+    }
+
+    /**
+     * Picks up the entries left by the previous run, oldest first; they are checked when first read.
+     */
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        File[] dirs = root.listFiles();
+        if (dirs == null) {
+            return;
+        }
+        List<File> files = new ArrayList<>();
+        for (File dir : dirs) {
+            File[] children = dir.listFiles();
+            if (children != null) {
+                files.addAll(Arrays.asList(children));
+            }
+        }
+        Collections.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (File f : files) {
+            if (BLOB_ID.matcher(f.getName()).matches()) {
+                entries.put(f.getName(), new Entry(f.getName(), f.length()));
+                size += f.length();
+            } else {
+                delete(f); // left over from an interrupted download
+            }
+        }
+    }
+
+    private static ByteBuffer map(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            // the mapping stays valid once the channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * The id Git gives to a file with the content of {@code file}.
+     */
+    private static String hash(File file) throws IOException {
+        ByteBuffer content = map(file);
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        digest.update(("blob " + content.remaining() + "\0").getBytes(StandardCharsets.US_ASCII));
+        digest.update(content);
+        return Util.toHexString(digest.digest());
+    }
+
+    private static void delete(File file) {
+        if (file.exists() && !file.delete()) {
+            // e.g. still mapped on Windows
+            LOGGER.log(Level.FINE, "Could not delete {0}", file);
+        }
+    }
+
+    private File getFile(String blobId) {
+        return new File(new File(root, blobId.substring(0, 2)), blobId);
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    synchronized long getEvictions() {
+        return evictions;
+    }
+
+    synchronized double getHitRatio() {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * A blob in the cache, with the number of its streams still open.
+     */
+    private static final class Entry {
+        private final String blobId;
+        private final long length;
+        private boolean verified;
+        private int readers;
+
+        Entry(String blobId, long length) {
+            this.blobId = blobId;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Reads a mapped entry, which is not evicted until closed.
+     */
+    private final class EntryInputStream extends InputStream {
+        private final Entry entry;
+        private final ByteBuffer buffer;
+        private boolean closed;
+
+        EntryInputStream(Entry entry, ByteBuffer buffer) {
+            this.entry = entry;
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(@Nonnull byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+        @Override
+        public void close() {
+            synchronized (BlobCache.this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                release(entry);
+            }
+        }
+    }
+}
@@ -10,9 +10,13 @@ import com.dabsquared.gitlabjenkins.connection.GitLabApiToken;
 import com.dabsquared.gitlabjenkins.connection.GitLabConnection;
 import com.dabsquared.gitlabjenkins.connection.GitLabConnectionConfig;
 import hudson.AbortException;
+import hudson.Extension;
 import hudson.Util;
+import hudson.XmlFile;
 import hudson.model.Item;
 import hudson.model.Queue;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
 import hudson.model.queue.Tasks;
 import hudson.security.ACL;
 import hudson.util.ListBoxModel;
@@ -20,13 +24,24 @@ import jenkins.model.Jenkins;
 import jenkins.scm.api.SCMSourceOwner;
 import org.apache.commons.lang.StringUtils;
 import org.gitlab.api.GitlabAPI;
+import org.gitlab.api.GitlabAPIException;
 import org.jenkinsci.plugins.gitclient.GitClient;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 import java.io.IOException;
+import java.net.HttpURLConnection;
 import java.net.Proxy;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import static com.cloudbees.plugins.credentials.CredentialsProvider.*;
@@ -37,6 +52,31 @@ import static com.cloudbees.plugins.credentials.CredentialsProvider.*;
 public class Connector {
     private static final Logger LOGGER = Logger.getLogger(Connector.class.getName());
 
+    /**
+     * How long a client that talked to GitLab successfully is trusted before we validate it again.
+     */
+    private static final long CLIENT_TTL = Long.getLong(Connector.class.getName() + ".clientTtlMillis",
+            TimeUnit.MINUTES.toMillis(10));
+
+    /**
+     * Clients handed out by {@link #connect(SCMSourceOwner, String)}, so that every probe and every project of an
+     * organization scan reuses the same {@link GitlabAPI} (and the keep-alive connections behind it)
+     * instead of building a new one and paying for a {@link GitlabAPI#getVersion()} round trip each time.
+     */
+    private static final ConcurrentMap<ClientKey, Client> clients = new ConcurrentHashMap<>();
+    /**
+     * Where each client handed out talks to, for as long as anybody holds on to it, even once it is no longer
+     * shared. {@link GitlabAPI} has identity equality.
+     */
+    private static final Map<GitlabAPI, Target> targets =
+            Collections.synchronizedMap(new WeakHashMap<GitlabAPI, Target>());
+
+    /**
+     * The root of the API {@link GitlabAPI} talks to.
+     */
+    private static final String API_NAMESPACE = "/api/v3";
+    private static final int CONNECT_TIMEOUT = (int) TimeUnit.SECONDS.toMillis(10);
+
     private Connector() {
         throw new IllegalAccessError("Utility class");
     }
@@ -107,12 +147,109 @@ public class Connector {
         GitLabConnection con = getEndpoint(endpoint);
         String apiToken = getApiToken(context, con);
 
+        ClientKey key = new ClientKey(endpoint, con.getApiTokenId(), Util.getDigestOf(con.getUrl() + '\n' + apiToken));
+        evictStale(key);
+        Client client = clients.get(key);
+        if (client == null) {
+            Client fresh = new Client(GitlabAPI.connect(con.getUrl(), apiToken));
+            client = clients.putIfAbsent(key, fresh);
+            if (client == null) {
+                client = fresh;
+                targets.put(fresh.api, new Target(key, con.getUrl(), apiToken));
+            }
+        }
+        if (client.needsValidation()) {
+            try {
+                client.validate();
+            } catch (IOException e) {
+                clients.remove(key, client);
+                throw new IOException("Wrong URL or invalid credentials: "+con.getUrl()+" with "+con.getApiTokenId(),e);
+            }
+        }
+        return client.api;
+    }
+
+    /**
+     * Lets the shared client know that a call made through it failed, so that an authentication failure forces
+     * the next {@link #connect(SCMSourceOwner, String)} to validate the credentials again rather than waiting
+     * for the TTL to expire.
+     *
+     * @param api the client the failed call was made with.
+     * @param e the failure.
+     */
+    public static void checkFailure(@Nonnull GitlabAPI api, @Nonnull IOException e) {
+        if (!(e instanceof GitlabAPIException)) {
+            return;
+        }
+        int code = ((GitlabAPIException) e).getResponseCode();
+        if (code != HttpURLConnection.HTTP_UNAUTHORIZED && code != HttpURLConnection.HTTP_FORBIDDEN) {
+            return;
+        }
+        Target target = targets.get(api);
+        if (target == null) {
+            return;
+        }
+        Client client = clients.get(target.key);
+        if (client != null && client.api == api && clients.remove(target.key, client)) {
+            LOGGER.log(Level.FINE, "Evicting GitLab client for {0} after HTTP {1}",
+                    new Object[]{target.key.endpoint, code});
+        }
+    }
+
+    /**
+     * Makes a request on the API directly, for what {@link GitlabAPI} cannot do: streaming a response, or answering
+     * with headers only. The request goes through the proxy of Jenkins, the token is sent as a header rather than in
+     * the URL, and authentication failures are reported to {@link #checkFailure(GitlabAPI, IOException)} like those
+     * of any other call.
+     *
+     * @param tailUrl the path under the root of the API, with its query string if any.
+     * @param readTimeout in milliseconds.
+     * @return the connection, once the response code is in, which the caller is to disconnect.
+     * @param api a client handed out by {@link #connect(SCMSourceOwner, String)}.
+     * @throws GitlabAPIException if the server refused the credentials.
+     */
+    @Nonnull
+    static HttpURLConnection request(@Nonnull GitlabAPI api, @Nonnull String tailUrl, @Nonnull String method,
+                                     int readTimeout) throws IOException {
+        Target target = targets.get(api);
+        if (target == null) {
+            // its token could only be had in the URL, which would end up in access logs
+            throw new IOException("Not a GitLab client of this plugin, refusing " + method + " " + tailUrl);
+        }
+        URL url = new URL(StringUtils.removeEnd(target.url, "/") + API_NAMESPACE + tailUrl);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection(getProxy(url.getHost()));
+        boolean ok = false;
         try {
-            GitlabAPI api = GitlabAPI.connect(con.getUrl(), apiToken);
-            api.getVersion();
-            return api;
-        } catch (IOException e) {
-            throw new IOException("Wrong URL or invalid credentials: "+con.getUrl()+" with "+con.getApiTokenId(),e);
+            connection.setRequestMethod(method);
+            connection.setConnectTimeout(CONNECT_TIMEOUT);
+            connection.setReadTimeout(readTimeout);
+            connection.setRequestProperty("PRIVATE-TOKEN", target.token);
+            int code = connection.getResponseCode();
+            if (code == HttpURLConnection.HTTP_UNAUTHORIZED || code == HttpURLConnection.HTTP_FORBIDDEN) {
+                GitlabAPIException e = new GitlabAPIException(
+                        "HTTP " + code + " on " + method + " " + tailUrl, code, null);
+                checkFailure(api, e);
+                throw e;
+            }
+            ok = true;
+            return connection;
+        } finally {
+            if (!ok) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Removes clients of the same endpoint that were created for a different credential or a different
+     * server URL, as they can never be handed out again.
+     */
+    private static void evictStale(ClientKey current) {
+        for (Iterator<ClientKey> it = clients.keySet().iterator(); it.hasNext(); ) {
+            ClientKey k = it.next();
+            if (k.endpoint.equals(current.endpoint) && !k.equals(current)) {
+                it.remove();
+            }
         }
     }
 
@@ -128,7 +265,7 @@ public class Connector {
      * @return proxy to use it in connector. Should not be null as it can lead to unexpected behaviour
      */
     @Nonnull
-    private static Proxy getProxy(@Nonnull String host) {
+    static Proxy getProxy(@Nonnull String host) {
         Jenkins jenkins = Jenkins.getActiveInstance();
 
         if (jenkins.proxy == null) {
@@ -139,4 +276,98 @@ public class Connector {
     }
 
     public static final String GITLAB_URL = "https://gitlab.com/";
+
+    /**
+     * Identifies a shared client: the connection name, the credentials id and a fingerprint of the
+     * URL and API token they resolved to.
+     */
+    private static final class ClientKey {
+        private final String endpoint;
+        private final String credentialsId;
+        private final String fingerprint;
+
+        ClientKey(String endpoint, String credentialsId, String fingerprint) {
+            this.endpoint = endpoint;
+            this.credentialsId = StringUtils.defaultString(credentialsId);
+            this.fingerprint = fingerprint;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+
+            ClientKey that = (ClientKey) o;
+
+            return endpoint.equals(that.endpoint)
+                    && credentialsId.equals(that.credentialsId)
+                    && fingerprint.equals(that.fingerprint);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = endpoint.hashCode();
+            result = 31 * result + credentialsId.hashCode();
+            result = 31 * result + fingerprint.hashCode();
+            return result;
+        }
+    }
+
+    /**
+     * What a client was created for.
+     */
+    private static final class Target {
+        private final ClientKey key;
+        private final String url;
+        private final String token;
+
+        Target(ClientKey key, String url, String token) {
+            this.key = key;
+            this.url = url;
+            this.token = token;
+        }
+    }
+
+    private static final class Client {
+        private final GitlabAPI api;
+        /**
+         * When {@link #api} last proved to be able to talk to the server, or {@code 0} if never.
+         */
+        private volatile long validated;
+
+        Client(GitlabAPI api) {
+            this.api = api;
+        }
+
+        boolean needsValidation() {
+            return System.currentTimeMillis() - validated > CLIENT_TTL;
+        }
+
+        void validate() throws IOException {
+            api.getVersion();
+            validated = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Drops all the shared clients, and what is kept per connection, when the GitLab connections are reconfigured,
+     * and the probe executors when their settings change.
+     */
+    @Extension
+    public static class ConnectionConfigListener extends SaveableListener {
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof GitLabConnectionConfig) {
+                clients.clear();
+                GroupProjects.forget();
+                CriteriaProber.shutdown();
+            } else if (o instanceof GitLabConnectionSettings) {
+                CriteriaProber.shutdown();
+            }
+        }
+    }
 }
\ No newline at end of file
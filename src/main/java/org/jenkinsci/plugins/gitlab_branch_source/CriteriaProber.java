@@ -0,0 +1,252 @@
+package org.jenkinsci.plugins.gitlab_branch_source;
+
+import hudson.model.TaskListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import hudson.util.StreamTaskListener;
+import jenkins.scm.api.SCMSourceCriteria;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Evaluates {@link SCMSourceCriteria} for the heads of a scan.
+ * <p>
+ * By default every head is probed on the scan thread, one after another. When the {@link GitLabConnectionSettings}
+ * of the GitLab connection ask for concurrent probes, the probes run on an executor shared by all scans against the
+ * connection, while the outcomes (and the log output of each probe) are still handed back on the scan thread in the
+ * order the heads were submitted, so the {@link jenkins.scm.api.SCMHeadObserver} never sees concurrent calls.
+ * <p>
+ * The queue of the executor is bounded; a scan whose probe does not fit any more runs it itself.
+ */
+final class CriteriaProber implements Closeable {
+    /**
+     * Probes queued per thread of an executor.
+     */
+    private static final int QUEUE_PER_THREAD = 2;
+
+    private static final ConcurrentMap<String, ThreadPoolExecutor> executors = new ConcurrentHashMap<>();
+
+    /**
+     * What to do with a head once its criteria have been evaluated.
+     */
+    interface Outcome {
+        /**
+         * Called on the scan thread, in submission order.
+         *
+         * @param met whether the criteria were met ({@code true} when the scan has no criteria).
+         * @return {@code false} if the scan should stop, e.g. because the observer is no longer observing.
+         */
+        boolean completed(boolean met) throws IOException, InterruptedException;
+    }
+
+    @CheckForNull
+    private final SCMSourceCriteria criteria;
+    @Nonnull
+    private final TaskListener listener;
+    @CheckForNull
+    private final ExecutorService executor;
+    private final int threads;
+    private final Deque<Pending> pending = new ArrayDeque<>();
+    private boolean stopped;
+
+    private CriteriaProber(@CheckForNull SCMSourceCriteria criteria, @Nonnull TaskListener listener,
+                           @CheckForNull ExecutorService executor, int threads) {
+        this.criteria = criteria;
+        this.listener = listener;
+        this.executor = executor;
+        this.threads = threads;
+    }
+
+    static CriteriaProber create(@CheckForNull String endpoint, @CheckForNull SCMSourceCriteria criteria,
+                                 @Nonnull TaskListener listener) {
+        if (criteria == null) {
+            return new CriteriaProber(null, listener, null, 0);
+        }
+        String key = String.valueOf(endpoint);
+        int threads = GitLabConnectionSettings.get().getProbeThreads(endpoint);
+        if (threads <= 0) {
+            return new CriteriaProber(criteria, listener, null, 0);
+        }
+        ThreadPoolExecutor executor = executors.get(key);
+        if (executor == null) {
+            ThreadPoolExecutor fresh = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(threads * QUEUE_PER_THREAD),
+                    new NamingThreadFactory(new DaemonThreadFactory(), "GitLab criteria probe for " + key));
+            fresh.allowCoreThreadTimeOut(true);
+            executor = executors.putIfAbsent(key, fresh);
+            if (executor == null) {
+                executor = fresh;
+            } else {
+                fresh.shutdown();
+            }
+        }
+        return new CriteriaProber(criteria, listener, executor, executor.getMaximumPoolSize());
+    }
+
+    /**
+     * Lets the executors of all the GitLab connections finish what they are doing and go away, as the connections
+     * or their settings were changed. Scans still using them probe on their own thread from then on.
+     */
+    static void shutdown() {
+        for (Iterator<ThreadPoolExecutor> it = executors.values().iterator(); it.hasNext(); ) {
+            ThreadPoolExecutor executor = it.next();
+            it.remove();
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Evaluates the criteria against the probe, either right away or in the background.
+     *
+     * @param header  printed to the scan log right before the output of the probe.
+     * @param probe   the probe, may be {@code null} only if the scan has no criteria.
+     * @param outcome called once the criteria have been evaluated.
+     * @return {@code false} if the scan should stop.
+     */
+    boolean submit(@Nonnull String header, @CheckForNull SCMSourceCriteria.Probe probe, @Nonnull Outcome outcome)
+            throws IOException, InterruptedException {
+        if (stopped) {
+            return false;
+        }
+        if (executor == null || probe == null) {
+            listener.getLogger().print(header);
+            return complete(criteria == null || probe == null || criteria.isHead(probe, listener), outcome);
+        }
+        FutureTask<Evaluation.Result> future = new FutureTask<>(new Evaluation(criteria, probe));
+        try {
+            executor.execute(future);
+        } catch (RejectedExecutionException e) {
+            // the queue is full of the probes of other scans, or the executor was shut down by a reconfiguration:
+            // probe right here, still handing the outcome over in order
+            future.run();
+        }
+        pending.add(new Pending(header, future, outcome));
+        // do not queue up more work than the pool can chew on, and hand over whatever is already done
+        return drain(threads * QUEUE_PER_THREAD);
+    }
+
+    /**
+     * Waits for all the submitted heads to complete.
+     *
+     * @return {@code false} if the scan should stop.
+     */
+    boolean finish() throws IOException, InterruptedException {
+        return !stopped && drain(0);
+    }
+
+    /**
+     * Cancels any probes that are still outstanding.
+     */
+    @Override
+    public void close() {
+        for (Pending p : pending) {
+            p.future.cancel(true);
+        }
+        pending.clear();
+    }
+
+    private boolean drain(int keep) throws IOException, InterruptedException {
+        while (!pending.isEmpty() && (pending.size() > keep || pending.peek().future.isDone())) {
+            Pending p = pending.poll();
+            Evaluation.Result r = get(p.future);
+            listener.getLogger().print(p.header);
+            listener.getLogger().write(r.log, 0, r.log.length);
+            if (!complete(r.met, p.outcome)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean complete(boolean met, Outcome outcome) throws IOException, InterruptedException {
+        if (!outcome.completed(met)) {
+            stopped = true;
+            close();
+            return false;
+        }
+        return true;
+    }
+
+    private static Evaluation.Result get(Future<Evaluation.Result> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private static final class Pending {
+        private final String header;
+        private final Future<Evaluation.Result> future;
+        private final Outcome outcome;
+
+        Pending(String header, Future<Evaluation.Result> future, Outcome outcome) {
+            this.header = header;
+            this.future = future;
+            this.outcome = outcome;
+        }
+    }
+
+    /**
+     * Evaluates the criteria on a pool thread, capturing whatever the criteria log so that it can be replayed
+     * on the scan log in order.
+     */
+    private static final class Evaluation implements Callable<Evaluation.Result> {
+        private final SCMSourceCriteria criteria;
+        private final SCMSourceCriteria.Probe probe;
+
+        Evaluation(SCMSourceCriteria criteria, SCMSourceCriteria.Probe probe) {
+            this.criteria = criteria;
+            this.probe = probe;
+        }
+
+        @Override
+        public Result call() throws Exception {
+            ByteArrayOutputStream log = new ByteArrayOutputStream();
+            boolean met = criteria.isHead(probe, new StreamTaskListener(log, StandardCharsets.UTF_8));
+            return new Result(met, log.toByteArray());
+        }
+
+        private static final class Result {
+            private final boolean met;
+            private final byte[] log;
+
+            Result(boolean met, byte[] log) {
+                this.met = met;
+                this.log = log;
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package org.jenkinsci.plugins.gitlab_branch_source;
+
+import jenkins.scm.api.SCMFile;
+import jenkins.scm.api.SCMProbeStat;
+import org.gitlab.api.models.GitlabRepositoryTree;
+
+import javax.annotation.Nonnull;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The entries of a directory as listed by GitLab, indexed by path and by case-folded path, so that
+ * {@link GitLabSCMProbe#stat(String)} does not scan the whole listing for every path it is asked about.
+ */
+final class DirectoryListing {
+    /**
+     * The listing of a directory GitLab answered 404 for: it does not exist, or the project cannot be seen (yet).
+     */
+    static final DirectoryListing NONE = new DirectoryListing(Collections.<GitlabRepositoryTree>emptyList());
+
+    private final Map<String, SCMProbeStat> entries;
+    /**
+     * The path of the first entry with each lower-cased path.
+     */
+    private final Map<String, String> folded;
+
+    DirectoryListing(@Nonnull List<GitlabRepositoryTree> listing) {
+        entries = new HashMap<>(listing.size() * 2);
+        folded = new HashMap<>(listing.size() * 2);
+        for (GitlabRepositoryTree content : listing) {
+            entries.put(content.getPath(), statOf(content));
+            String key = content.getPath().toLowerCase(Locale.ENGLISH);
+            if (!folded.containsKey(key)) {
+                folded.put(key, content.getPath());
+            }
+        }
+    }
+
+    private static SCMProbeStat statOf(GitlabRepositoryTree content) {
+        return SCMProbeStat.fromType(typeOf(content));
+    }
+
+    /**
+     * The type of an entry of a tree listing; submodules, listed as {@code commit}, are {@link SCMFile.Type#OTHER}.
+     */
+    @Nonnull
+    static SCMFile.Type typeOf(@Nonnull GitlabRepositoryTree content) {
+        String t = content.getType();
+        if (t.equals("blob")) {
+            return SCMFile.Type.REGULAR_FILE;
+        } else if (t.equals("tree")) {
+            return SCMFile.Type.DIRECTORY;
+        } else if ("120000".equals(content.getMode())) {
+            return SCMFile.Type.LINK;
+        } else {
+            return SCMFile.Type.OTHER;
+        }
+    }
+
+    /**
+     * @param path the full path of an entry of this directory.
+     */
+    @Nonnull
+    SCMProbeStat stat(@Nonnull String path) {
+        SCMProbeStat stat = entries.get(path);
+        if (stat != null) {
+            return stat;
+        }
+        String alternative = folded.get(path.toLowerCase(Locale.ENGLISH));
+        if (alternative != null) {
+            return SCMProbeStat.fromAlternativePath(alternative);
+        }
+        return SCMProbeStat.fromType(SCMFile.Type.NONEXISTENT);
+    }
+}
@@ -0,0 +1,143 @@
+package org.jenkinsci.plugins.gitlab_branch_source;
+
+import com.dabsquared.gitlabjenkins.connection.GitLabConnection;
+import com.dabsquared.gitlabjenkins.connection.GitLabConnectionConfig;
+import hudson.Extension;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.util.FormValidation;
+import hudson.util.ListBoxModel;
+import jenkins.model.GlobalConfiguration;
+import jenkins.model.Jenkins;
+import net.sf.json.JSONObject;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerRequest;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What this plugin does differently per GitLab connection, next to the connections of the GitLab plugin, which
+ * cannot carry settings of ours.
+ */
+@Extension
+public class GitLabConnectionSettings extends GlobalConfiguration {
+
+    private List<Entry> connections = Collections.emptyList();
+
+    public GitLabConnectionSettings() {
+        load();
+    }
+
+    @Nonnull
+    static GitLabConnectionSettings get() {
+        GitLabConnectionSettings settings = GlobalConfiguration.all().get(GitLabConnectionSettings.class);
+        if (settings == null) {
+            throw new IllegalStateException("GitLab connection settings are not loaded");
+        }
+        return settings;
+    }
+
+    @Nonnull
+    public List<Entry> getConnections() {
+        return connections == null ? Collections.<Entry>emptyList() : connections;
+    }
+
+    @DataBoundSetter
+    public void setConnections(@CheckForNull List<Entry> connections) {
+        this.connections = connections == null ? Collections.<Entry>emptyList() : new ArrayList<>(connections);
+    }
+
+    @CheckForNull
+    Entry getConnection(@CheckForNull String connectionName) {
+        for (Entry e : getConnections()) {
+            if (e.getConnectionName().equals(connectionName)) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The number of heads probed concurrently during a scan against the connection, {@code 0} probing them one
+     * after another on the scan thread.
+     */
+    int getProbeThreads(@CheckForNull String connectionName) {
+        Entry e = getConnection(connectionName);
+        return e == null ? 0 : e.getProbeThreads();
+    }
+
+    @Override
+    public boolean configure(StaplerRequest req, JSONObject json) throws FormException {
+        // a form without any connection settings does not mention them at all
+        setConnections(null);
+        req.bindJSON(this, json);
+        save();
+        return true;
+    }
+
+    /**
+     * The settings of one GitLab connection.
+     */
+    public static class Entry extends AbstractDescribableImpl<Entry> {
+        @Nonnull
+        private final String connectionName;
+        private int probeThreads;
+
+        @DataBoundConstructor
+        public Entry(@Nonnull String connectionName) {
+            this.connectionName = connectionName;
+        }
+
+        /**
+         * The name of the connection in the configuration of the GitLab plugin.
+         */
+        @Nonnull
+        public String getConnectionName() {
+            return connectionName;
+        }
+
+        public int getProbeThreads() {
+            return probeThreads;
+        }
+
+        @DataBoundSetter
+        public void setProbeThreads(int probeThreads) {
+            this.probeThreads = Math.max(0, probeThreads);
+        }
+
+        @Extension
+        public static class DescriptorImpl extends Descriptor<Entry> {
+            @Override
+            public String getDisplayName() {
+                return Messages.GitLabConnectionSettings_Entry_DisplayName();
+            }
+
+            @Restricted(NoExternalUse.class)
+            public ListBoxModel doFillConnectionNameItems() {
+                ListBoxModel result = new ListBoxModel();
+                GitLabConnectionConfig config =
+                        Jenkins.getActiveInstance().getInjector().getInstance(GitLabConnectionConfig.class);
+                for (GitLabConnection con : config.getConnections()) {
+                    result.add(String.format("%s (%s)", con.getName(), con.getUrl()), con.getName());
+                }
+                return result;
+            }
+
+            @Restricted(NoExternalUse.class)
+            public FormValidation doCheckProbeThreads(@QueryParameter int value) {
+                if (value < 0) {
+                    return FormValidation.error("Must not be negative");
+                }
+                return FormValidation.ok();
+            }
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package org.jenkinsci.plugins.gitlab_branch_source;
+
+import hudson.Extension;
+import hudson.model.PeriodicWork;
+import jenkins.scm.api.SCMEvent;
+import jenkins.scm.api.SCMHeadEvent;
+import jenkins.util.Timer;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Holds the hooks of each project back for a short while, so that a burst of them (a push of many branches, a
+ * rebased stack of merge requests) results in a single {@link GitLabSCMHeadEvent}.
+ * <p>
+ * Hooks about the same ref only keep the latest commit, and hooks about different refs of the same project are
+ * merged into one event whose heads are all of them. A project is released once no hook came in for
+ * {@code org.jenkinsci.plugins.gitlab_branch_source.GitLabEventCoalescer.windowMillis}, and at the latest
+ * {@code maxDelayMillis} after its first hook. A window of {@code 0} fires every hook right away.
+ * <p>
+ * How many hooks came in and how many events they made is logged every {@code reportMinutes}, if any did.
+ */
+final class GitLabEventCoalescer {
+    private static final Logger LOGGER = Logger.getLogger(GitLabEventCoalescer.class.getName());
+
+    private static final long WINDOW = Long.getLong(GitLabEventCoalescer.class.getName() + ".windowMillis", 1000);
+    private static final long MAX_DELAY = Math.max(WINDOW,
+            Long.getLong(GitLabEventCoalescer.class.getName() + ".maxDelayMillis", 10000));
+    private static final long REPORT_PERIOD = TimeUnit.MINUTES.toMillis(
+            Math.max(1, Long.getLong(GitLabEventCoalescer.class.getName() + ".reportMinutes", 60)));
+
+    private static final GitLabEventCoalescer INSTANCE = new GitLabEventCoalescer();
+
+    /**
+     * By endpoint and project id.
+     */
+    private final Map<String, Batch> pending = new HashMap<>();
+    /**
+     * Hooks waiting in {@link #pending}.
+     */
+    private int depth;
+    private long received;
+    private long fired;
+
+    private GitLabEventCoalescer() {
+    }
+
+    static GitLabEventCoalescer get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Queues a hook, which is fired along with whatever else comes in for the same project shortly.
+     */
+    void offer(@Nonnull GitLabWebHookPayload payload, @Nonnull SCMEvent.Type type, @CheckForNull String origin) {
+        if (WINDOW <= 0) {
+            synchronized (this) {
+                received++;
+                fired++;
+            }
+            SCMHeadEvent.fireNow(new GitLabSCMHeadEvent(type, payload, origin));
+            return;
+        }
+        String key = String.valueOf(payload.getEndpoint()) + '\t' + payload.getProjectId();
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            received++;
+            Batch batch = pending.get(key);
+            if (batch == null) {
+                batch = new Batch(key, now);
+                pending.put(key, batch);
+                schedule(batch, WINDOW);
+            }
+            if (batch.add(payload, type, origin, now)) {
+                depth++;
+            }
+        }
+    }
+
+    private void schedule(final Batch batch, long delay) {
+        Timer.get().schedule(new Runnable() {
+            @Override
+            public void run() {
+                release(batch);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void release(Batch batch) {
+        List<GitLabSCMHeadEvent> events;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            long quietUntil = batch.last + WINDOW;
+            long deadline = batch.first + MAX_DELAY;
+            if (now < quietUntil && now < deadline) {
+                // still busy, wait for it to calm down
+                schedule(batch, Math.min(quietUntil, deadline) - now);
+                return;
+            }
+            pending.remove(batch.key);
+            depth -= batch.refs.size();
+            events = batch.toEvents();
+            fired += events.size();
+        }
+        for (GitLabSCMHeadEvent event : events) {
+            LOGGER.log(Level.FINE, "Firing {0} of {1} for {2} refs",
+                    new Object[]{event.getType(), event.getPayload().getProjectPath(), event.getPayloads().size()});
+            SCMHeadEvent.fireNow(event);
+        }
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.log(Level.FINE, "Hooks queued: {0}, coalescing ratio: {1}",
+                    new Object[]{getQueueDepth(), getCoalescingRatio()});
+        }
+    }
+
+    /**
+     * The number of refs that are waiting to be fired.
+     */
+    synchronized int getQueueDepth() {
+        return depth;
+    }
+
+    synchronized long getReceived() {
+        return received;
+    }
+
+    synchronized long getFired() {
+        return fired;
+    }
+
+    /**
+     * How many hooks made it into each event fired so far, {@code 1} meaning that nothing was coalesced.
+     */
+    synchronized double getCoalescingRatio() {
+        return fired == 0 ? 1 : (double) (received - depth) / fired;
+    }
+
+    /**
+     * Logs the counters of the coalescer.
+     */
+    @Extension
+    public static class Reporter extends PeriodicWork {
+        private long reported;
+
+        @Override
+        public long getRecurrencePeriod() {
+            return REPORT_PERIOD;
+        }
+
+        @Override
+        protected void doRun() {
+            GitLabEventCoalescer coalescer = get();
+            long received;
+            long fired;
+            int depth;
+            double ratio;
+            synchronized (coalescer) {
+                received = coalescer.getReceived();
+                fired = coalescer.getFired();
+                depth = coalescer.getQueueDepth();
+                ratio = coalescer.getCoalescingRatio();
+            }
+            if (received == reported) {
+                return;
+            }
+            reported = received;
+            LOGGER.log(Level.INFO, "GitLab hooks received: {0}, events fired: {1}, hooks queued: {2}, "
+                    + "coalescing ratio: {3}", new Object[]{received, fired, depth, String.format("%.2f", ratio)});
+        }
+    }
+
+    /**
+     * The hooks of a project that came in during the window.
+     */
+    static final class Batch {
+        private final String key;
+        private final long first;
+        private long last;
+        /**
+         * By ref, e.g. {@code refs/heads/master} or {@code !42} for merge request 42.
+         */
+        private final Map<String, Pending> refs = new LinkedHashMap<>();
+
+        Batch(String key, long first) {
+            this.key = key;
+            this.first = first;
+            this.last = first;
+        }
+
+        /**
+         * @return {@code true} if this is the first hook about the ref.
+         */
+        boolean add(GitLabWebHookPayload payload, SCMEvent.Type type, String origin, long now) {
+            last = now;
+            String ref;
+            switch (payload.getKind()) {
+                case MERGE_REQUEST:
+                    ref = "!" + payload.getNumber();
+                    break;
+                case TAG_PUSH:
+                    ref = "refs/tags/" + payload.getRef();
+                    break;
+                default:
+                    ref = "refs/heads/" + payload.getRef();
+                    break;
+            }
+            Pending previous = refs.remove(ref);
+            if (previous != null) {
+                if (previous.type == SCMEvent.Type.CREATED && type == SCMEvent.Type.UPDATED) {
+                    // still new to anybody who has not seen the first one
+                    type = SCMEvent.Type.CREATED;
+                }
+                GitLabEventJournal.get().ack(previous.payload);
+            }
+            // re-insert, so that the refs are fired in the order of their latest hook
+            refs.put(ref, new Pending(payload, type, origin));
+            return previous == null;
+        }
+
+        /**
+         * One event per type, as creations, updates and removals are handled differently.
+         */
+        List<GitLabSCMHeadEvent> toEvents() {
+            Map<SCMEvent.Type, List<GitLabWebHookPayload>> payloads = new LinkedHashMap<>();
+            Map<SCMEvent.Type, String> origins = new HashMap<>();
+            for (Pending p : refs.values()) {
+                List<GitLabWebHookPayload> list = payloads.get(p.type);
+                if (list == null) {
+                    list = new ArrayList<>();
+                    payloads.put(p.type, list);
+                }
+                list.add(p.payload);
+                origins.put(p.type, p.origin);
+            }
+            List<GitLabSCMHeadEvent> result = new ArrayList<>();
+            for (Map.Entry<SCMEvent.Type, List<GitLabWebHookPayload>> e : payloads.entrySet()) {
+                result.add(new GitLabSCMHeadEvent(e.getKey(), e.getValue(), origins.get(e.getKey())));
+            }
+            return result;
+        }
+    }
+
+    private static final class Pending {
+        private final GitLabWebHookPayload payload;
+        private final SCMEvent.Type type;
+        private final String origin;
+
+        Pending(GitLabWebHookPayload payload, SCMEvent.Type type, String origin) {
+            this.payload = payload;
+            this.type = type;
+            this.origin = origin;
+        }
+    }
+}
@@ -0,0 +1,439 @@
+package org.jenkinsci.plugins.gitlab_branch_source;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.util.AtomicFileWriter;
+import jenkins.model.Jenkins;
+import jenkins.scm.api.SCMEvent;
+import jenkins.scm.api.SCMEventListener;
+import jenkins.scm.api.SCMHeadEvent;
+import jenkins.util.Timer;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the accepted hooks in {@code $JENKINS_HOME/gitlab-branch-source/events.journal} until their event has been
+ * processed, so that hooks received right before a restart are replayed rather than waiting for the next scan.
+ * <p>
+ * The journal is append-only: one line per accepted hook, one line per processed hook. Hooks are written out and
+ * synced to disk in batches, every
+ * {@code org.jenkinsci.plugins.gitlab_branch_source.GitLabEventJournal.syncMillis}, and the hook request is only
+ * answered once its batch is on disk. The journal is rewritten with only the outstanding hooks once most of its
+ * lines are about processed ones. There is at most one sync or rewrite going on at any time.
+ */
+final class GitLabEventJournal {
+    private static final Logger LOGGER = Logger.getLogger(GitLabEventJournal.class.getName());
+
+    private static final long SYNC_MILLIS = Long.getLong(GitLabEventJournal.class.getName() + ".syncMillis", 50);
+    /**
+     * How long a hook request waits for its batch to be synced before being answered anyway.
+     */
+    private static final long SYNC_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(5);
+    /**
+     * The journal is not compacted before it has this many lines.
+     */
+    private static final int COMPACT_MIN_LINES = 1000;
+
+    private static final GitLabEventJournal INSTANCE = new GitLabEventJournal();
+
+    /**
+     * The hooks that are not processed yet, by sequence number, as journal lines.
+     */
+    private final Map<Long, String> outstanding = new LinkedHashMap<>();
+    private final Map<GitLabWebHookPayload, Long> sequences = new IdentityHashMap<>();
+    private long lastSequence;
+    /**
+     * The hooks up to this one are on disk.
+     */
+    private long syncedSequence;
+    /**
+     * The hooks up to this one, and after {@link #syncedSequence}, could not be synced.
+     */
+    private long failedSequence;
+    @CheckForNull
+    private IOException syncFailure;
+    private int lines;
+    /**
+     * Whether a sync is scheduled or running.
+     */
+    private boolean syncScheduled;
+    /**
+     * Whether lines were written since the last sync started.
+     */
+    private boolean dirty;
+    @CheckForNull
+    private FileOutputStream out;
+    @CheckForNull
+    private Writer writer;
+
+    private GitLabEventJournal() {
+    }
+
+    static GitLabEventJournal get() {
+        return INSTANCE;
+    }
+
+    private static File getFile() {
+        return new File(new File(Jenkins.getActiveInstance().getRootDir(), "gitlab-branch-source"), "events.journal");
+    }
+
+    /**
+     * Journals an accepted hook, and waits for it to be on disk.
+     *
+     * @throws IOException if the hook could not be written, or could not be synced in time.
+     */
+    void append(@Nonnull GitLabWebHookPayload payload, @CheckForNull String origin) throws IOException {
+        long sequence;
+        synchronized (this) {
+            sequence = ++lastSequence;
+            String line = entry(sequence, payload, origin);
+            write(line);
+            outstanding.put(sequence, line);
+            sequences.put(payload, sequence);
+            scheduleSync();
+        }
+        try {
+            awaitSync(sequence);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while syncing the GitLab event journal", e);
+        }
+    }
+
+    /**
+     * Records that the event of a hook was processed, or superseded by a later hook about the same ref.
+     */
+    synchronized void ack(@Nonnull GitLabWebHookPayload payload) {
+        Long sequence = sequences.remove(payload);
+        if (sequence == null || outstanding.remove(sequence) == null) {
+            return;
+        }
+        try {
+            write("A\t" + sequence);
+            scheduleSync();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not journal the processing of a GitLab hook", e);
+        }
+    }
+
+    private void write(String line) throws IOException {
+        if (writer == null) {
+            File file = getFile();
+            File dir = file.getParentFile();
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Could not create " + dir);
+            }
+            out = new FileOutputStream(file, true);
+            writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        }
+        writer.write(line);
+        writer.write('\n');
+        lines++;
+        dirty = true;
+    }
+
+    private void scheduleSync() {
+        if (syncScheduled) {
+            return;
+        }
+        syncScheduled = true;
+        Timer.get().schedule(new Runnable() {
+            @Override
+            public void run() {
+                sync();
+            }
+        }, SYNC_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void awaitSync(long sequence) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + SYNC_TIMEOUT_MILLIS;
+        long remaining;
+        while (syncedSequence < sequence && failedSequence < sequence
+                && (remaining = deadline - System.currentTimeMillis()) > 0) {
+            wait(remaining);
+        }
+        if (syncedSequence < sequence) {
+            throw failedSequence < sequence
+                    ? new IOException("Timed out syncing the GitLab event journal")
+                    : new IOException("Could not sync the GitLab event journal", syncFailure);
+        }
+    }
+
+    private void sync() {
+        long upTo;
+        FileChannel channel;
+        synchronized (this) {
+            dirty = false;
+            upTo = lastSequence;
+            IOException failure = null;
+            channel = null;
+            try {
+                if (writer != null) {
+                    writer.flush();
+                    channel = out.getChannel();
+                }
+            } catch (IOException e) {
+                failure = e;
+            }
+            if (channel == null) {
+                synced(upTo, failure);
+                return;
+            }
+        }
+        IOException failure = null;
+        try {
+            // outside the lock, so that hooks keep being appended to the next batch meanwhile; the channel is not
+            // closed meanwhile, as only a sync compacts it
+            channel.force(false);
+        } catch (IOException e) {
+            failure = e;
+        }
+        synchronized (this) {
+            if (failure == null && lines >= COMPACT_MIN_LINES && lines > 4 * outstanding.size()) {
+                compact();
+            }
+            synced(upTo, failure);
+        }
+    }
+
+    /**
+     * Records the outcome of a sync, and schedules the next one if more lines were written meanwhile.
+     */
+    private void synced(long upTo, @CheckForNull IOException failure) {
+        if (failure == null) {
+            syncedSequence = Math.max(syncedSequence, upTo);
+        } else {
+            LOGGER.log(Level.WARNING, "Could not sync the GitLab event journal", failure);
+            failedSequence = Math.max(failedSequence, upTo);
+            syncFailure = failure;
+        }
+        syncScheduled = false;
+        notifyAll();
+        if (dirty) {
+            scheduleSync();
+        }
+    }
+
+    /**
+     * Rewrites the journal with only the outstanding hooks.
+     */
+    private void compact() {
+        File file = getFile();
+        try {
+            if (writer != null) {
+                // so that whatever becomes of the rewrite, what was written so far is on disk
+                writer.flush();
+                out.getChannel().force(false);
+                close();
+            }
+            AtomicFileWriter w = new AtomicFileWriter(file, "UTF-8");
+            try {
+                for (String line : outstanding.values()) {
+                    w.write(line);
+                    w.write('\n');
+                }
+                w.commit();
+            } finally {
+                w.abort();
+            }
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                channel.force(false);
+            }
+            lines = outstanding.size();
+            LOGGER.log(Level.FINE, "Compacted the GitLab event journal to {0} hooks", lines);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not compact " + file, e);
+        }
+    }
+
+    private void close() throws IOException {
+        if (writer != null) {
+            Writer w = writer;
+            writer = null;
+            out = null;
+            w.close();
+        }
+    }
+
+    /**
+     * Reads back the hooks that were not processed before the last shutdown.
+     */
+    private synchronized List<Map.Entry<GitLabWebHookPayload, String>> load() throws InterruptedException {
+        while (syncScheduled) {
+            // hooks that came in before the replay; let their sync finish before rewriting the file
+            wait();
+        }
+        List<Map.Entry<GitLabWebHookPayload, String>> result = new ArrayList<>();
+        File file = getFile();
+        if (!file.isFile()) {
+            return result;
+        }
+        Map<Long, String> pending;
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(file),
+                StandardCharsets.UTF_8))) {
+            pending = readOutstanding(r);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not read " + file + ", hooks received before the restart are lost", e);
+            return result;
+        }
+        for (Map.Entry<Long, String> e : pending.entrySet()) {
+            Map.Entry<GitLabWebHookPayload, String> hook;
+            try {
+                hook = parse(e.getValue());
+            } catch (IllegalArgumentException | NullPointerException x) {
+                LOGGER.log(Level.FINE, "Dropping unreadable journaled hook " + e.getKey(), x);
+                continue;
+            }
+            lastSequence = Math.max(lastSequence, e.getKey());
+            outstanding.put(e.getKey(), e.getValue());
+            sequences.put(hook.getKey(), e.getKey());
+            result.add(hook);
+        }
+        syncedSequence = lastSequence;
+        compact();
+        return result;
+    }
+
+    /**
+     * The journal line of an accepted hook: sequence number, endpoint, event type, origin and body.
+     */
+    static String entry(long sequence, @Nonnull GitLabWebHookPayload payload, @CheckForNull String origin) {
+        return "E\t" + sequence + '\t' + escape(payload.getEndpoint()) + '\t' + escape(payload.getEventType())
+                + '\t' + escape(origin) + '\t' + escape(payload.getBody());
+    }
+
+    /**
+     * The lines of the hooks that were not acknowledged, by sequence number.
+     */
+    static Map<Long, String> readOutstanding(BufferedReader r) throws IOException {
+        Map<Long, String> pending = new LinkedHashMap<>();
+        String line;
+        while ((line = r.readLine()) != null) {
+            String[] fields = line.split("\t", -1);
+            try {
+                if (fields.length == 6 && fields[0].equals("E")) {
+                    pending.put(Long.parseLong(fields[1]), line);
+                } else if (fields.length == 2 && fields[0].equals("A")) {
+                    pending.remove(Long.parseLong(fields[1]));
+                }
+            } catch (NumberFormatException e) {
+                // a line torn by a crash, skip it
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * Reads back the hook and its origin from its journal line.
+     *
+     * @throws IllegalArgumentException if the hook cannot be parsed any more.
+     */
+    static Map.Entry<GitLabWebHookPayload, String> parse(String line) {
+        String[] fields = line.split("\t", -1);
+        return new AbstractMap.SimpleImmutableEntry<>(
+                new GitLabWebHookPayload(unescape(fields[2]), unescape(fields[3]), unescape(fields[5])),
+                unescape(fields[4]));
+    }
+
+    static String escape(@CheckForNull String value) {
+        if (value == null) {
+            return "";
+        }
+        StringBuilder b = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                    b.append("\\\\");
+                    break;
+                case '\t':
+                    b.append("\\t");
+                    break;
+                case '\n':
+                    b.append("\\n");
+                    break;
+                case '\r':
+                    b.append("\\r");
+                    break;
+                default:
+                    b.append(c);
+            }
+        }
+        return b.toString();
+    }
+
+    @CheckForNull
+    static String unescape(String value) {
+        StringBuilder b = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char n = value.charAt(++i);
+                b.append(n == 't' ? '\t' : n == 'n' ? '\n' : n == 'r' ? '\r' : n);
+            } else {
+                b.append(c);
+            }
+        }
+        return Util.fixEmpty(b.toString());
+    }
+
+    /**
+     * Fires the events of the hooks that were not processed before the last shutdown.
+     */
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    public static void replay() throws InterruptedException {
+        List<Map.Entry<GitLabWebHookPayload, String>> hooks = get().load();
+        int replayed = 0;
+        for (Map.Entry<GitLabWebHookPayload, String> hook : hooks) {
+            SCMEvent.Type type = hook.getKey().getType();
+            if (type == null) {
+                get().ack(hook.getKey());
+                continue;
+            }
+            GitLabEventCoalescer.get().offer(hook.getKey(), type, hook.getValue());
+            replayed++;
+        }
+        if (replayed > 0) {
+            LOGGER.log(Level.INFO, "Replaying {0} GitLab hooks received before the restart", replayed);
+        }
+    }
+
+    /**
+     * Acknowledges the hooks of an event once the other listeners, which act upon it, are done with it.
+     */
+    @Extension(ordinal = -1000)
+    public static class Acknowledger extends SCMEventListener {
+        @Override
+        public void onSCMHeadEvent(SCMHeadEvent<?> event) {
+            if (event instanceof GitLabSCMHeadEvent) {
+                for (GitLabWebHookPayload payload : ((GitLabSCMHeadEvent) event).getPayloads()) {
+                    get().ack(payload);
+                }
+            }
+        }
+    }
+}
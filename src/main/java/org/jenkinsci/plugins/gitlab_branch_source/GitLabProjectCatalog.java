@@ -0,0 +1,126 @@
+package org.jenkinsci.plugins.gitlab_branch_source;
+
+import org.apache.commons.lang.StringUtils;
+import org.gitlab.api.models.GitlabProject;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The projects recently seen on each GitLab connection, so that a {@link GitLabSCMSource} created by
+ * {@link GitLabSCMNavigator} does not need to look its project up again.
+ * <p>
+ * Projects are kept as the API returned them and handed out as is, so they must not be modified. Entries expire
+ * after {@code org.jenkinsci.plugins.gitlab_branch_source.GitLabProjectCatalog.ttlMinutes}, and are invalidated
+ * whenever an event about the project comes in.
+ */
+final class GitLabProjectCatalog {
+    private static final long TTL = TimeUnit.MINUTES.toMillis(
+            Long.getLong(GitLabProjectCatalog.class.getName() + ".ttlMinutes", 10));
+
+    private static final GitLabProjectCatalog INSTANCE = new GitLabProjectCatalog();
+
+    /**
+     * By endpoint and lower-cased full path.
+     */
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private GitLabProjectCatalog() {
+    }
+
+    static GitLabProjectCatalog get() {
+        return INSTANCE;
+    }
+
+    void put(@CheckForNull String endpoint, @Nonnull GitlabProject project) {
+        if (project.getPathWithNamespace() == null) {
+            return;
+        }
+        evictStale();
+        entries.put(key(endpoint, project.getPathWithNamespace()), new Entry(project));
+    }
+
+    /**
+     * Compares the project details of a hook payload with those of the entry of the project, and drops the entry if
+     * they differ, so that the next lookup fetches the project again.
+     * <p>
+     * Which details a hook carries depends on its type and on the version of GitLab, so only those it carries are
+     * compared.
+     *
+     * @return {@code true} if a detail that shows up in the UI differs, {@code false} if none does or there was no
+     * entry to compare with.
+     */
+    boolean refresh(@Nonnull GitLabWebHookPayload payload) {
+        String key = key(payload.getEndpoint(), payload.getProjectPath());
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return false;
+        }
+        if (differs(payload.getProjectDescription(), entry.project.getDescription())
+                || differs(payload.getProjectUrl(), entry.project.getWebUrl())
+                || differs(payload.getProjectDefaultBranch(), entry.project.getDefaultBranch())) {
+            entries.remove(key, entry);
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean differs(@CheckForNull String carried, @CheckForNull String catalogued) {
+        return StringUtils.isNotEmpty(carried) && !carried.equals(catalogued);
+    }
+
+    /**
+     * @param fullPath the path of the project including its namespace, e.g. {@code owner/repository}.
+     * @return the project as the API returned it, or {@code null} if the project needs to be looked up.
+     */
+    @CheckForNull
+    GitlabProject lookup(@CheckForNull String endpoint, @Nonnull String fullPath) {
+        Entry entry = entries.get(key(endpoint, fullPath));
+        if (entry == null || System.currentTimeMillis() - entry.created >= TTL) {
+            return null;
+        }
+        return entry.project;
+    }
+
+    void invalidate(@CheckForNull String endpoint, @Nonnull String fullPath) {
+        entries.remove(key(endpoint, fullPath));
+    }
+
+    void invalidate(@CheckForNull String endpoint, int projectId) {
+        String prefix = String.valueOf(endpoint) + '\t';
+        for (Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Entry> e = it.next();
+            if (e.getValue().project.getId() == projectId && e.getKey().startsWith(prefix)) {
+                it.remove();
+            }
+        }
+    }
+
+    private void evictStale() {
+        long now = System.currentTimeMillis();
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+            if (now - it.next().created >= TTL) {
+                it.remove();
+            }
+        }
+    }
+
+    private static String key(@CheckForNull String endpoint, @Nonnull String fullPath) {
+        return String.valueOf(endpoint) + '\t' + fullPath.toLowerCase(Locale.ENGLISH);
+    }
+
+    private static final class Entry {
+        private final long created = System.currentTimeMillis();
+        private final GitlabProject project;
+
+        Entry(GitlabProject project) {
+            this.project = project;
+        }
+    }
+}
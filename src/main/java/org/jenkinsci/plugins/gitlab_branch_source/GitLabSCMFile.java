@@ -7,27 +7,34 @@ import org.gitlab.api.models.GitlabProject;
 import org.gitlab.api.models.GitlabRepositoryFile;
 import org.gitlab.api.models.GitlabRepositoryTree;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
-import java.io.ByteArrayInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 class GitLabSCMFile extends SCMFile {
 
     private TypeInfo info;
+    @CheckForNull
+    private final String endpoint;
     private final GitlabAPI api;
     private final GitlabProject repo;
     private final String ref;
     private transient Object metadata;
     private transient boolean resolved;
 
-    GitLabSCMFile(GitlabAPI api, GitlabProject repo, String ref) {
+    /**
+     * @param endpoint the GitLab connection, which identifies the {@link TreeSnapshot} of {@code ref}.
+     */
+    GitLabSCMFile(@CheckForNull String endpoint, GitlabAPI api, GitlabProject repo, String ref) {
         super();
         type(Type.DIRECTORY);
         info = TypeInfo.DIRECTORY_ASSUMED; // we have not resolved the metadata yet
+        this.endpoint = endpoint;
         this.api = api;
         this.repo = repo;
         this.ref = ref;
@@ -36,6 +43,7 @@ class GitLabSCMFile extends SCMFile {
     private GitLabSCMFile(@Nonnull GitLabSCMFile parent, String name, TypeInfo info) {
         super(parent, name);
         this.info = info;
+        this.endpoint = parent.endpoint;
         this.api = parent.api;
         this.repo = parent.repo;
         this.ref = parent.ref;
@@ -43,6 +51,7 @@ class GitLabSCMFile extends SCMFile {
 
     private GitLabSCMFile(@Nonnull GitLabSCMFile parent, String name, GitlabRepositoryTree metadata) {
         super(parent, name);
+        this.endpoint = parent.endpoint;
         this.api = parent.api;
         this.repo = parent.repo;
         this.ref = parent.ref;
@@ -104,6 +113,16 @@ class GitLabSCMFile extends SCMFile {
     @Nonnull
     @Override
     public Iterable<SCMFile> children() throws IOException {
+        TreeSnapshot snapshot = TreeSnapshot.of(endpoint, api, repo, ref);
+        if (snapshot != null) {
+            Map<String, TreeSnapshot.Kind> content = snapshot.children(getPath());
+            List<SCMFile> result = new ArrayList<>(content.size());
+            for (Map.Entry<String, TreeSnapshot.Kind> c : content.entrySet()) {
+                result.add(new GitLabSCMFile(this, c.getKey(), c.getValue() == TreeSnapshot.Kind.TREE
+                        ? TypeInfo.DIRECTORY_CONFIRMED : TypeInfo.NON_DIRECTORY_CONFIRMED));
+            }
+            return result;
+        }
         List<GitlabRepositoryTree> content = api.getRepositoryTree(repo, getPath(), ref, false);
         List<SCMFile> result = new ArrayList<>(content.size());
         for (GitlabRepositoryTree c : content) {
@@ -121,6 +140,10 @@ class GitLabSCMFile extends SCMFile {
     @Nonnull
     @Override
     protected Type type() throws IOException, InterruptedException {
+        TreeSnapshot snapshot = TreeSnapshot.of(endpoint, api, repo, ref);
+        if (snapshot != null) {
+            return snapshot.type(getPath());
+        }
         Object metadata = metadata();
         if (metadata instanceof List) {
             return Type.DIRECTORY;
@@ -138,18 +161,42 @@ class GitLabSCMFile extends SCMFile {
             */
             return Type.REGULAR_FILE;
         }
+        if (metadata instanceof GitlabRepositoryTree) {
+            return DirectoryListing.typeOf((GitlabRepositoryTree) metadata);
+        }
         return Type.NONEXISTENT;
     }
 
     @Nonnull
     @Override
     public InputStream content() throws IOException, InterruptedException {
+        TreeSnapshot snapshot = TreeSnapshot.of(endpoint, api, repo, ref);
+        if (snapshot != null) {
+            if (snapshot.type(getPath()) == Type.DIRECTORY) {
+                throw new IOException("Directory");
+            }
+            String blobId = snapshot.blobId(getPath());
+            if (blobId == null) {
+                if (snapshot.type(getPath()) == Type.NONEXISTENT) {
+                    throw new FileNotFoundException(getPath());
+                }
+                throw new IOException("Not a file: " + getPath());
+            }
+            return BlobCache.get().open(api, repo, blobId, getPath());
+        }
         Object metadata = metadata();
         if (metadata instanceof List) {
             throw new IOException("Directory");
         }
         if (metadata instanceof GitlabRepositoryFile) {
-            return new ByteArrayInputStream(api.getRawBlobContent(repo,((GitlabRepositoryFile)metadata).getBlobId()));
+            return BlobCache.get().open(api, repo, ((GitlabRepositoryFile) metadata).getBlobId(), getPath());
+        }
+        if (metadata instanceof GitlabRepositoryTree) {
+            GitlabRepositoryTree entry = (GitlabRepositoryTree) metadata;
+            if (!"blob".equals(entry.getType())) {
+                throw new IOException("Not a file: " + getPath());
+            }
+            return BlobCache.get().open(api, repo, entry.getId(), getPath());
         }
         throw new FileNotFoundException(getPath());
     }
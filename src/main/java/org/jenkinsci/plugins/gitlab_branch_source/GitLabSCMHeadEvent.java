@@ -0,0 +1,185 @@
+package org.jenkinsci.plugins.gitlab_branch_source;
+
+import hudson.scm.SCM;
+import jenkins.plugins.git.AbstractGitSCMSource.SCMRevisionImpl;
+import jenkins.scm.api.SCMHead;
+import jenkins.scm.api.SCMHeadEvent;
+import jenkins.scm.api.SCMNavigator;
+import jenkins.scm.api.SCMRevision;
+import jenkins.scm.api.SCMSource;
+import org.apache.commons.lang.StringUtils;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One or more push or merge request hooks about the same GitLab project, see {@link GitLabEventCoalescer}.
+ * <p>
+ * The payload carries everything needed to act upon the change (new head commit, target branch, source project,
+ * author), which {@link GitLabSCMSource} uses to skip looking the branch or merge request up again.
+ */
+final class GitLabSCMHeadEvent extends SCMHeadEvent<GitLabWebHookPayload> {
+    /**
+     * The hooks, one per ref, the latest being {@link #getPayload()}.
+     */
+    private final List<GitLabWebHookPayload> payloads;
+
+    GitLabSCMHeadEvent(@Nonnull Type type, @Nonnull GitLabWebHookPayload payload, @CheckForNull String origin) {
+        this(type, Collections.singletonList(payload), origin);
+    }
+
+    GitLabSCMHeadEvent(@Nonnull Type type, @Nonnull List<GitLabWebHookPayload> payloads,
+                       @CheckForNull String origin) {
+        super(type, payloads.get(payloads.size() - 1), origin);
+        this.payloads = Collections.unmodifiableList(new ArrayList<>(payloads));
+    }
+
+    /**
+     * All the hooks of this event, which are about the same project but each about a different ref.
+     */
+    @Nonnull
+    List<GitLabWebHookPayload> getPayloads() {
+        return payloads;
+    }
+
+    /**
+     * Whether the event is about the project of the source.
+     */
+    boolean isMatch(@Nonnull GitLabSCMSource source) {
+        return isMatch(getPayload(), source);
+    }
+
+    static boolean isMatch(@Nonnull GitLabWebHookPayload payload, @Nonnull GitLabSCMSource source) {
+        return StringUtils.equals(payload.getEndpoint(), source.getEndpoint())
+                && payload.getProjectPath().equalsIgnoreCase(source.getRepoOwner() + "/" + source.getRepository());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isMatch(@Nonnull SCMSource source) {
+        return source instanceof GitLabSCMSource && isMatch((GitLabSCMSource) source);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isMatch(@Nonnull SCMNavigator navigator) {
+        return isMatch(getPayload(), navigator);
+    }
+
+    static boolean isMatch(@Nonnull GitLabWebHookPayload payload, @Nonnull SCMNavigator navigator) {
+        if (!(navigator instanceof GitLabSCMNavigator)) {
+            return false;
+        }
+        GitLabSCMNavigator nav = (GitLabSCMNavigator) navigator;
+        if (!StringUtils.equals(payload.getEndpoint(), nav.getEndpoint())) {
+            return false;
+        }
+        String prefix = nav.getRepoOwner() + "/";
+        String path = payload.getProjectPath();
+        if (!path.regionMatches(true, 0, prefix, 0, prefix.length())) {
+            return false;
+        }
+        return nav.isIncludeSubgroups() || path.indexOf('/', prefix.length()) < 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Nonnull
+    @Override
+    public String getSourceName() {
+        return getSourceName(getPayload());
+    }
+
+    @Nonnull
+    static String getSourceName(@Nonnull GitLabWebHookPayload payload) {
+        String name = payload.getProjectName();
+        if (name != null) {
+            return name;
+        }
+        String path = payload.getProjectPath();
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Nonnull
+    @Override
+    public Map<SCMHead, SCMRevision> heads(@Nonnull SCMSource source) {
+        if (!(source instanceof GitLabSCMSource) || !isMatch((GitLabSCMSource) source)) {
+            return Collections.emptyMap();
+        }
+        GitLabSCMSource src = (GitLabSCMSource) source;
+        Map<SCMHead, SCMRevision> result = new HashMap<>();
+        for (GitLabWebHookPayload payload : payloads) {
+            switch (payload.getKind()) {
+                case PUSH: {
+                    String branch = payload.getRef();
+                    if (branch == null || src.isExcluded(branch)) {
+                        break;
+                    }
+                    BranchSCMHead head = new BranchSCMHead(branch);
+                    result.put(head, getType() == Type.REMOVED ? null : new SCMRevisionImpl(head, payload.getAfter()));
+                    break;
+                }
+                case MERGE_REQUEST:
+                    for (boolean merge : new boolean[]{false, true}) {
+                        MergeRequestSCMHead head = mergeRequestHead(payload, src, merge);
+                        if (head != null) {
+                            // the base of the revision is the head of the target branch, not in the payload
+                            result.put(head, null);
+                        }
+                    }
+                    break;
+                default:
+                    // tags are not built
+                    break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The head the source would create for the merge request of the payload, if it builds this combination.
+     */
+    @CheckForNull
+    MergeRequestSCMHead mergeRequestHead(@Nonnull GitLabSCMSource source, boolean merge) {
+        return mergeRequestHead(getPayload(), source, merge);
+    }
+
+    @CheckForNull
+    private static MergeRequestSCMHead mergeRequestHead(@Nonnull GitLabWebHookPayload payload,
+                                                        @Nonnull GitLabSCMSource source, boolean merge) {
+        if (payload.getKind() != GitLabWebHookPayload.Kind.MERGE_REQUEST) {
+            return null;
+        }
+        String name = source.mergeRequestHeadName(payload.getNumber(), payload.isFork(), merge);
+        if (name == null) {
+            return null;
+        }
+        String path = payload.getProjectPath();
+        int slash = path.lastIndexOf('/');
+        String namespace = path.substring(0, Math.max(slash, 0));
+        return new MergeRequestSCMHead(name, payload.getNumber(), payload.getTargetBranch(),
+                payload.getSourceProjectId(), namespace.substring(namespace.lastIndexOf('/') + 1),
+                path.substring(slash + 1), payload.getAfter(), merge);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isMatch(@Nonnull SCM scm) {
+        return false;
+    }
+}
@@ -9,18 +9,26 @@ import hudson.Extension;
 import hudson.Util;
 import hudson.console.HyperlinkNote;
 import hudson.model.Action;
+import hudson.model.Cause;
+import hudson.model.CauseAction;
+import hudson.model.Executor;
+import hudson.model.Item;
+import hudson.model.ItemGroup;
 import hudson.model.TaskListener;
+import hudson.model.queue.WorkUnit;
 import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
 import jenkins.scm.api.SCMNavigator;
 import jenkins.scm.api.SCMNavigatorDescriptor;
 import jenkins.scm.api.SCMNavigatorEvent;
 import jenkins.scm.api.SCMNavigatorOwner;
+import jenkins.scm.api.SCMSource;
 import jenkins.scm.api.SCMSourceCategory;
 import jenkins.scm.api.SCMSourceObserver;
 import jenkins.scm.api.SCMSourceOwner;
 import jenkins.scm.api.metadata.ObjectMetadataAction;
 import jenkins.scm.impl.UncategorizedSCMSourceCategory;
+import jenkins.util.Timer;
 import org.apache.commons.lang.StringUtils;
 import org.gitlab.api.GitlabAPI;
 import org.gitlab.api.models.GitlabGroup;
@@ -40,8 +48,15 @@ import javax.annotation.Nonnull;
 import javax.inject.Inject;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
 
@@ -49,6 +64,18 @@ import java.util.regex.Pattern;
  * @author Kohsuke Kawaguchi
  */
 public class GitLabSCMNavigator extends SCMNavigator {
+    /**
+     * Shorter project searches are rejected or ignored by GitLab.
+     */
+    private static final int MIN_SEARCH_TERM = 3;
+    /**
+     * Flags such as {@code (?i)} or {@code (?x)}, which change what a literal in a pattern matches.
+     */
+    private static final Pattern INLINE_FLAGS = Pattern.compile("\\(\\?[idmsuxU-]+[:)]");
+    /**
+     * Stands for {@code /} in the item names of projects of subgroups.
+     */
+    private static final char ITEM_NAME_SEPARATOR = '~';
 
     private final String repoOwner;
     /**
@@ -56,6 +83,9 @@ public class GitLabSCMNavigator extends SCMNavigator {
      */
     private final String endpoint;
     private String pattern = ".*";
+    /** {@link #pattern}, compiled. */
+    @CheckForNull
+    private transient volatile Pattern compiledPattern;
 
     private final String checkoutCredentialsId;
 
@@ -81,6 +111,20 @@ public class GitLabSCMNavigator extends SCMNavigator {
     /** Whether to build PRs filed from a fork, where the build is of the branch head. */
     @Nonnull
     private Boolean buildForkPRHead = DescriptorImpl.defaultBuildForkPRHead;
+    /** How many subgroups are listed at the same time during a scan. */
+    private int concurrency = DescriptorImpl.defaultConcurrency;
+    /** Whether to also discover the projects of subgroups, at any depth. */
+    private boolean includeSubgroups;
+    /** Whether to list the open merge requests of the whole group once per scan on behalf of all the sources. */
+    private boolean prefetchMergeRequests;
+    /** Whether to leave out projects nothing was pushed to yet. */
+    private boolean skipEmptyProjects;
+
+    /**
+     * The projects seen by the last complete scan, reset whenever the navigator is reconfigured.
+     */
+    @CheckForNull
+    private transient volatile ProjectActivitySnapshot projectSnapshot;
 
     @DataBoundConstructor
     public GitLabSCMNavigator(String endpoint, String repoOwner, String checkoutCredentialsId) {
@@ -110,6 +154,9 @@ public class GitLabSCMNavigator extends SCMNavigator {
         if (buildForkPRHead == null) {
             buildForkPRHead = DescriptorImpl.defaultBuildForkPRHead;
         }
+        if (concurrency <= 0) {
+            concurrency = DescriptorImpl.defaultConcurrency;
+        }
         return this;
     }
 
@@ -187,6 +234,42 @@ public class GitLabSCMNavigator extends SCMNavigator {
         this.buildForkPRHead = buildForkPRHead;
     }
 
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    @DataBoundSetter
+    public void setConcurrency(int concurrency) {
+        this.concurrency = Math.max(1, concurrency);
+    }
+
+    public boolean isIncludeSubgroups() {
+        return includeSubgroups;
+    }
+
+    @DataBoundSetter
+    public void setIncludeSubgroups(boolean includeSubgroups) {
+        this.includeSubgroups = includeSubgroups;
+    }
+
+    public boolean isPrefetchMergeRequests() {
+        return prefetchMergeRequests;
+    }
+
+    @DataBoundSetter
+    public void setPrefetchMergeRequests(boolean prefetchMergeRequests) {
+        this.prefetchMergeRequests = prefetchMergeRequests;
+    }
+
+    public boolean isSkipEmptyProjects() {
+        return skipEmptyProjects;
+    }
+
+    @DataBoundSetter
+    public void setSkipEmptyProjects(boolean skipEmptyProjects) {
+        this.skipEmptyProjects = skipEmptyProjects;
+    }
+
     public String getRepoOwner() {
         return repoOwner;
     }
@@ -207,10 +290,82 @@ public class GitLabSCMNavigator extends SCMNavigator {
 
     @DataBoundSetter
     public void setPattern(String pattern) {
-        Pattern.compile(pattern);
+        this.compiledPattern = Pattern.compile(pattern);
         this.pattern = pattern;
     }
 
+    private Pattern getCompiledPattern() {
+        Pattern compiled = compiledPattern;
+        if (compiled == null) {
+            compiledPattern = compiled = Pattern.compile(pattern);
+        }
+        return compiled;
+    }
+
+    /**
+     * Derives a server side project search from a repository name pattern: the longest run of literal characters
+     * that every matching name must contain.
+     *
+     * @return the search term, or {@code null} if there is none long enough to be worth searching for, or the
+     * pattern is too involved to tell.
+     */
+    @CheckForNull
+    static String projectSearchTerm(@Nonnull String regex) {
+        if (regex.indexOf('|') >= 0 || regex.contains("\\Q") || INLINE_FLAGS.matcher(regex).find()) {
+            return null; // alternatives need not share any literal, quotes and flags change what literals are
+        }
+        String longest = "";
+        StringBuilder run = new StringBuilder();
+        int depth = 0;
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            char literal = 0;
+            if (c == '\\' && i + 1 < regex.length()) {
+                char escaped = regex.charAt(++i);
+                if (!Character.isLetterOrDigit(escaped)) {
+                    literal = escaped;
+                }
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == '[') {
+                // skip the character class
+                while (i + 1 < regex.length() && regex.charAt(i) != ']') {
+                    i += regex.charAt(i) == '\\' ? 2 : 1;
+                }
+            } else if (c == '{') {
+                // skip the bounds of the quantifier, whose digits are not part of the name
+                while (i + 1 < regex.length() && regex.charAt(i) != '}') {
+                    i++;
+                }
+            } else if (Character.isLetterOrDigit(c) || c == '-' || c == '_' || c == ' ' || c == '/') {
+                literal = c;
+            }
+            // anything but a required literal outside of a group ends the run, and '+' ends it after the literal
+            if (literal != 0 && depth == 0 && !isOptional(regex, i + 1)) {
+                run.append(literal);
+                if (i + 1 < regex.length() && regex.charAt(i + 1) == '+') {
+                    longest = longer(longest, run);
+                    run.setLength(0);
+                }
+            } else {
+                longest = longer(longest, run);
+                run.setLength(0);
+            }
+        }
+        longest = longer(longest, run);
+        return longest.length() >= MIN_SEARCH_TERM ? longest : null;
+    }
+
+    private static boolean isOptional(String regex, int i) {
+        return i < regex.length() && (regex.charAt(i) == '?' || regex.charAt(i) == '*' || regex.charAt(i) == '{');
+    }
+
+    private static String longer(String longest, CharSequence run) {
+        return run.length() > longest.length() ? run.toString() : longest;
+    }
+
     @Nonnull
     @Override
     protected String id() {
@@ -230,12 +385,107 @@ public class GitLabSCMNavigator extends SCMNavigator {
         }
         if (org != null) {
             listener.getLogger().format("Looking up repositories of organization %s%n%n", repoOwner);
-            for (GitlabProject repo : gitlab.getGroupProjects(org)) {
-//                if (!observer.isObserving()) {
-//                    return;
-//                }
-                checkInterrupt();
-                add(listener, observer, gitlab, repo);
+            ProjectActivitySnapshot snapshot = projectSnapshot;
+            boolean requested = isRequestedByUser();
+            boolean incremental = !requested && snapshot != null && snapshot.isUsableFor(org);
+            if (requested && snapshot != null) {
+                listener.getLogger().format("Scan requested by a user, listing every repository in full%n%n");
+            }
+            GroupMergeRequests.Listing mergeRequests = null;
+            if (prefetchMergeRequests) {
+                mergeRequests = prefetchMergeRequests(listener, gitlab, org);
+            }
+            Pattern compiled = getCompiledPattern();
+            // item names of subgroup projects are paths, which the search does not look at
+            String searchTerm = includeSubgroups ? null : projectSearchTerm(pattern);
+            StringBuilder query = new StringBuilder("archived=false");
+            if (searchTerm != null) {
+                query.append("&search=").append(URLEncoder.encode(searchTerm, "UTF-8"));
+            }
+            String baseQuery = query.toString();
+            if (incremental) {
+                query.append('&').append(snapshot.activityQuery());
+            }
+            Map<Integer, String> listed = new HashMap<>();
+            Set<Integer> dropped = new HashSet<>();
+            Date newest = null;
+            int fetched = 0;
+            int skipped = 0;
+            int matched = 0;
+            boolean observing = true;
+            GroupProjects projects = new GroupProjects(endpoint, gitlab, org, repoOwner, query.toString(),
+                    includeSubgroups, concurrency);
+            try {
+                for (GitlabProject repo : projects) {
+                    checkInterrupt();
+                    fetched++;
+                    newest = ProjectActivitySnapshot.newer(newest, repo.getLastActivityAt());
+                    if (Boolean.TRUE.equals(repo.isArchived()) || skipEmptyProjects && repo.getDefaultBranch() == null) {
+                        // archived on a server that ignores the filter, or nothing pushed yet
+                        skipped++;
+                        dropped.add(repo.getId());
+                        continue;
+                    }
+                    String name = itemName(repo);
+                    listed.put(repo.getId(), name);
+                    if (!compiled.matcher(name).matches()) {
+                        listener.getLogger().format("Ignoring %s%n", name);
+                        continue;
+                    }
+                    matched++;
+                    GitLabProjectCatalog.get().put(endpoint, repo);
+                    if (mergeRequests != null) {
+                        mergeRequests.offer(repo.getId());
+                    }
+                    add(listener, observer, name);
+                    if (!observer.isObserving()) {
+                        observing = false;
+                        break;
+                    }
+                }
+                listener.getLogger().format("%n%d repositories listed%s, %d %s skipped, %d matched the name pattern%n",
+                        fetched, searchTerm == null ? "" : " for the search '" + searchTerm + "'", skipped,
+                        skipEmptyProjects ? "archived or empty" : "archived", matched);
+                if (observing && incremental) {
+                    Map<Integer, String> present = reconcile(gitlab, org, baseQuery);
+                    Map<Integer, String> unchanged = new HashMap<>(present);
+                    unchanged.keySet().removeAll(listed.keySet());
+                    unchanged.keySet().removeAll(dropped);
+                    int active = listed.size();
+                    listed.putAll(unchanged);
+                    listener.getLogger().format("%n%d repositories active since the last scan, %d unchanged, "
+                                    + "%d renamed or moved, %d gone%n%n", active, unchanged.size(),
+                            snapshot.renamed(listed), snapshot.gone(listed.keySet()));
+                    for (Map.Entry<Integer, String> entry : unchanged.entrySet()) {
+                        checkInterrupt();
+                        if (!compiled.matcher(entry.getValue()).matches()) {
+                            continue;
+                        }
+                        if (mergeRequests != null) {
+                            mergeRequests.offer(entry.getKey());
+                        }
+                        add(listener, observer, entry.getValue());
+                        if (!observer.isObserving()) {
+                            observing = false;
+                            break;
+                        }
+                    }
+                }
+            } catch (PagedIterable.FetchException e) {
+                IOException cause = e.rethrow();
+                Connector.checkFailure(gitlab, cause);
+                throw cause;
+            } catch (IOException e) {
+                Connector.checkFailure(gitlab, e);
+                throw e;
+            } finally {
+                projects.close();
+            }
+            if (observing) {
+                // only a scan that saw every project can tell which ones are unchanged next time
+                projectSnapshot = incremental
+                        ? snapshot.update(listed, newest)
+                        : ProjectActivitySnapshot.full(org, listed, newest);
             }
             return;
         }
@@ -243,14 +493,127 @@ public class GitLabSCMNavigator extends SCMNavigator {
         throw new AbortException(repoOwner + " does not correspond to a known GitLab User Account or Organization");
     }
 
+    /**
+     * Lists the open merge requests of the whole group, so that the sources do not need to list their own.
+     *
+     * @return {@code null} if the server cannot list the merge requests of a group.
+     */
+    @CheckForNull
+    private GroupMergeRequests.Listing prefetchMergeRequests(TaskListener listener, GitlabAPI gitlab, GitlabGroup org)
+            throws IOException, InterruptedException {
+        try {
+            GroupMergeRequests.Listing listing = GroupMergeRequests.get().prefetch(String.valueOf(endpoint), gitlab, org);
+            listener.getLogger().format("Prefetched %d open merge requests across %d repositories%n%n",
+                    listing.getCount(), listing.getProjectCount());
+            return listing;
+        } catch (FileNotFoundException e) {
+            listener.getLogger().format("This GitLab server cannot list the merge requests of a group, "
+                    + "each repository will list its own%n%n");
+            return null;
+        } catch (IOException e) {
+            Connector.checkFailure(gitlab, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Lists every project of the group, leaving out those a scan skips, but only asking for their ids and paths.
+     *
+     * @return the item names of the projects, by id.
+     */
+    private Map<Integer, String> reconcile(GitlabAPI gitlab, GitlabGroup org, String baseQuery)
+            throws InterruptedException {
+        Map<Integer, String> present = new HashMap<>();
+        try (GroupProjects projects = new GroupProjects(endpoint, gitlab, org, repoOwner, baseQuery + "&simple=true",
+                includeSubgroups, concurrency)) {
+            for (GitlabProject repo : projects) {
+                checkInterrupt();
+                if (Boolean.TRUE.equals(repo.isArchived()) || skipEmptyProjects && repo.getDefaultBranch() == null) {
+                    continue;
+                }
+                present.put(repo.getId(), itemName(repo));
+            }
+        }
+        return present;
+    }
+
+    /**
+     * Whether the running scan was asked for from the UI, e.g. with <em>Scan Organization Now</em>, rather than
+     * triggered periodically or by an event.
+     */
+    private static boolean isRequestedByUser() {
+        Executor executor = Executor.currentExecutor();
+        WorkUnit unit = executor == null ? null : executor.getCurrentWorkUnit();
+        if (unit == null) {
+            return false;
+        }
+        for (Action a : unit.context.actions) {
+            if (a instanceof CauseAction) {
+                for (Cause c : ((CauseAction) a).getCauses()) {
+                    if (c instanceof Cause.UserIdCause) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
     @Override
     public void visitSource(String sourceName, SCMSourceObserver observer)
             throws IOException, InterruptedException {
         TaskListener listener = observer.getListener();
 
         GitlabAPI gitlab = connect(observer);
-        GitlabProject p = gitlab.getProject(repoOwner + "/" + sourceName);
-        add(listener, observer, gitlab, p);
+        GitlabProject p = gitlab.getProject(projectPath(observer.getContext(), sourceName));
+        GitLabProjectCatalog.get().put(endpoint, p);
+        String name = itemName(p);
+        if (!getCompiledPattern().matcher(name).matches()) {
+            listener.getLogger().format("Ignoring %s%n", name);
+            return;
+        }
+        add(listener, observer, name);
+    }
+
+    /**
+     * The name a project is known by during a scan, and matched against {@link #getPattern()}: its name for projects
+     * directly in the group, and its path relative to the group for projects of subgroups, e.g. {@code team/service}.
+     * The latter is proposed as {@link #itemNameOf(String)}.
+     */
+    private String itemName(GitlabProject repo) {
+        String relative = GroupProjects.relativePath(repoOwner, repo);
+        return relative != null && relative.indexOf('/') >= 0 ? relative : repo.getName();
+    }
+
+    /**
+     * The item name a project is proposed under: item names cannot contain {@code /} (nor {@code %}), so the
+     * segments of the path of a project of a subgroup are joined with {@code ~}, e.g. {@code team~service}.
+     * Neither the paths nor the names of GitLab projects may contain {@code ~}, so such an item name cannot
+     * collide with that of another project of a subgroup, nor with that of a project directly in the group.
+     */
+    @Nonnull
+    static String itemNameOf(@Nonnull String name) {
+        return name.replace('/', ITEM_NAME_SEPARATOR);
+    }
+
+    /**
+     * The full path of the project behind an item, as recorded by its source, rather than as guessed from its name.
+     */
+    @Nonnull
+    private String projectPath(@Nonnull SCMSourceOwner context, @Nonnull String itemName) {
+        if (context instanceof ItemGroup) {
+            Item item = ((ItemGroup<?>) context).getItem(itemName);
+            if (item instanceof SCMSourceOwner) {
+                for (SCMSource source : ((SCMSourceOwner) item).getSCMSources()) {
+                    if (source instanceof GitLabSCMSource) {
+                        GitLabSCMSource gl = (GitLabSCMSource) source;
+                        return gl.getRepoOwner() + "/" + gl.getRepository();
+                    }
+                }
+            }
+        }
+        // not created yet
+        return repoOwner + "/" + itemName.replace(ITEM_NAME_SEPARATOR, '/');
     }
 
     private GitlabAPI connect(SCMSourceObserver observer) throws IOException {
@@ -261,17 +624,15 @@ public class GitLabSCMNavigator extends SCMNavigator {
         return Connector.connect(observer,endpoint);
     }
 
-    private void add(TaskListener listener, SCMSourceObserver observer, GitlabAPI gitlab, GitlabProject repo) throws InterruptedException {
-        String name = repo.getName();
-        if (!Pattern.compile(pattern).matcher(name).matches()) {
-            listener.getLogger().format("Ignoring %s%n", name);
-            return;
-        }
+    private void add(TaskListener listener, SCMSourceObserver observer, String name) throws IOException, InterruptedException {
         listener.getLogger().format("Proposing %s%n", name);
         checkInterrupt();
-        SCMSourceObserver.ProjectObserver projectObserver = observer.observe(name);
+        SCMSourceObserver.ProjectObserver projectObserver = observer.observe(itemNameOf(name));
 
-        GitLabSCMSource glSCMSource = new GitLabSCMSource(getId()+ "::" + name, endpoint, checkoutCredentialsId, repoOwner, name);
+        // projects of subgroups live in the namespace of their subgroup, which only the source knows
+        int slash = name.lastIndexOf('/');
+        String owner = slash < 0 ? repoOwner : repoOwner + "/" + name.substring(0, slash);
+        GitLabSCMSource glSCMSource = new GitLabSCMSource(getId()+ "::" + name, endpoint, checkoutCredentialsId, owner, name.substring(slash + 1));
         glSCMSource.setExcludes(getExcludes());
         glSCMSource.setIncludes(getIncludes());
         glSCMSource.setBuildOriginBranch(getBuildOriginBranch());
@@ -320,18 +681,19 @@ public class GitLabSCMNavigator extends SCMNavigator {
      * {@inheritDoc}
      */
     @Override
-    public void afterSave(@Nonnull SCMNavigatorOwner owner) {
-        // TODO
-//        GitLabWebHook.get().registerHookFor(owner);
-//        try {
-//            // FIXME MINOR HACK ALERT
-//            StandardCredentials credentials =
-//                    Connector.lookupScanCredentials(owner, getApiUri(), getScanCredentialsId());
-//            GitLab hub = Connector.connect(getApiUri(), credentials);
-//            GitLabOrgWebHook.register(hub, repoOwner);
-//        } catch (IOException e) {
-//            DescriptorImpl.LOGGER.log(Level.WARNING, e.getMessage(), e);
-//        }
+    public void afterSave(@Nonnull final SCMNavigatorOwner owner) {
+        Timer.get().submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    GitlabAPI api = connect(owner);
+                    GitLabWebHook.register(api, api.getGroup(repoOwner), endpoint);
+                } catch (IOException e) {
+                    // group hooks need GitLab EE, otherwise each project gets its own hook once it is discovered
+                    DescriptorImpl.LOGGER.log(Level.FINE, "Could not register a GitLab hook for group " + repoOwner, e);
+                }
+            }
+        });
     }
 
     @Extension
@@ -348,6 +710,7 @@ public class GitLabSCMNavigator extends SCMNavigator {
         public static final boolean defaultBuildOriginPRHead = GitLabSCMSource.DescriptorImpl.defaultBuildOriginPRHead;
         public static final boolean defaultBuildForkPRMerge = GitLabSCMSource.DescriptorImpl.defaultBuildForkPRMerge;
         public static final boolean defaultBuildForkPRHead = GitLabSCMSource.DescriptorImpl.defaultBuildForkPRHead;
+        public static final int defaultConcurrency = 1;
 
         @Inject
         private GitLabSCMSource.DescriptorImpl delegate;
@@ -420,6 +783,11 @@ public class GitLabSCMNavigator extends SCMNavigator {
             return delegate.doCheckIncludes(value);
         }
 
+        @Restricted(NoExternalUse.class)
+        public FormValidation doCheckConcurrency(@QueryParameter String value) {
+            return FormValidation.validatePositiveInteger(value);
+        }
+
         @Restricted(NoExternalUse.class)
         public FormValidation doCheckBuildOriginBranchWithPR(
             @QueryParameter boolean buildOriginBranch,
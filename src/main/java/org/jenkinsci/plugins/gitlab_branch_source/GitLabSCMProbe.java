@@ -9,27 +9,65 @@ import jenkins.scm.api.SCMRevision;
 import org.gitlab.api.GitlabAPI;
 import org.gitlab.api.models.GitlabCommit;
 import org.gitlab.api.models.GitlabProject;
-import org.gitlab.api.models.GitlabRepositoryTree;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.List;
+import java.net.HttpURLConnection;
+import java.net.URLEncoder;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 class GitLabSCMProbe extends SCMProbe {
     private static final long serialVersionUID = 1L;
+    private static final Logger LOGGER = Logger.getLogger(GitLabSCMProbe.class.getName());
+    private static final int TIMEOUT = (int) TimeUnit.SECONDS.toMillis(30);
+    /**
+     * How long a server that does not answer {@code HEAD} on the repository files API is left alone, as it might
+     * be upgraded.
+     */
+    private static final long NO_FILE_HEAD_MILLIS = TimeUnit.HOURS.toMillis(1);
+    /**
+     * The GitLab connections whose server does not answer {@code HEAD} on the repository files API as expected,
+     * with when to try again.
+     */
+    private static final Map<String, Long> NO_FILE_HEAD = new ConcurrentHashMap<>();
+
     private final SCMRevision revision;
     private final transient GitlabAPI api;
     private final transient GitlabProject repo;
+    private final transient GitLabScanContext context;
     private final String ref;
     private final String name;
+    /**
+     * The commit the probe looks at, if known, in which case its results can be cached.
+     */
+    @CheckForNull
+    private final String commit;
+    /**
+     * The directories this probe already asked about, after which it lists them rather than checking each file.
+     */
+    private transient Set<String> visited;
 
-    public GitLabSCMProbe(GitlabAPI api, GitlabProject repo, SCMHead head, SCMRevision revision) {
+    /**
+     * @param commit the commit {@code head} points to, if known.
+     */
+    public GitLabSCMProbe(GitLabScanContext context, SCMHead head, SCMRevision revision, @CheckForNull String commit) {
         this.revision = revision;
-        this.api = api;
-        this.repo = repo;
+        this.context = context;
+        this.api = context.getApi();
+        this.repo = context.getProject();
         this.name = head.getName();
-        if (head instanceof MergeRequestSCMHead) {
+        this.commit = commit;
+        if (commit != null) {
+            this.ref = commit;
+        } else if (head instanceof MergeRequestSCMHead) {
             MergeRequestSCMHead pr = (MergeRequestSCMHead) head;
             this.ref = "refs/merge-requests/" + pr.getNumber() + (pr.isMerge() ? "/merge" : "/head");
         } else {
@@ -75,31 +113,137 @@ class GitLabSCMProbe extends SCMProbe {
         if (repo == null) {
             throw new IOException("No connection available");
         }
-        try {
+        if (commit == null) {
+            return doStat(path).stat;
+        }
+        ProbeStatCache cache = ProbeStatCache.get();
+        SCMProbeStat stat = cache.lookup(context.getEndpoint(), repo.getId(), commit, path);
+        if (stat != null) {
+            context.getMetrics().increment("probe cache hits");
+            return stat;
+        }
+        context.getMetrics().increment("probe cache misses");
+        Answer answer = doStat(path);
+        if (answer.definitive) {
+            cache.store(context.getEndpoint(), repo.getId(), commit, path, answer.stat);
+        }
+        return answer.stat;
+    }
 
-            int index = path.lastIndexOf('/') + 1;
-            List<GitlabRepositoryTree> directoryContent = api.getRepositoryTree(repo,path.substring(0, index), ref, false);
-            for (GitlabRepositoryTree content : directoryContent) {
-                if (content.getPath().equals(path)) {
-                    String t = content.getType();
-                    if (t.equals("blob")) {
-                        return SCMProbeStat.fromType(SCMFile.Type.REGULAR_FILE);
-                    } else if (t.equals("tree")) {
-                        return SCMProbeStat.fromType(SCMFile.Type.DIRECTORY);
-                    } else if (content.getMode().equals("120000")) {
-                        return SCMProbeStat.fromType(SCMFile.Type.LINK);
-                    } else {
-                        return SCMProbeStat.fromType(SCMFile.Type.OTHER);
-                    }
-                }
-                if (content.getPath().equalsIgnoreCase(path)) {
-                    return SCMProbeStat.fromAlternativePath(content.getPath());
-                }
+    @Nonnull
+    private Answer doStat(@Nonnull String path) throws IOException {
+        TreeSnapshot snapshot = TreeSnapshot.of(context.getEndpoint(), api, repo, ref);
+        if (snapshot != null) {
+            context.getMetrics().increment("probe stats from tree snapshots");
+            return new Answer(snapshot.stat(path), true);
+        }
+        String dir = path.substring(0, path.lastIndexOf('/') + 1);
+        DirectoryListing listing = context.getListing(ref, dir);
+        if (visited == null) {
+            visited = new HashSet<>();
+        }
+        if (listing == null && visited.add(dir) && isFileElsewhere(dir, path)) {
+            // a single file, which most likely exists, in a directory we know nothing about yet at this ref: the
+            // cheapest is to ask for just that file
+            if (headFile(path)) {
+                return new Answer(SCMProbeStat.fromType(SCMFile.Type.REGULAR_FILE), true);
             }
-        } catch (FileNotFoundException fnf) {
-            // means that does not exist and this is handled below this try/catch block.
         }
-        return SCMProbeStat.fromType(SCMFile.Type.NONEXISTENT);
+        // several paths in the same directory, a path that is likely missing (in which case the listing tells about
+        // the same path with a different case too), or one that is not a file
+        if (listing == null) {
+            context.getMetrics().increment("directory listing requests");
+            try {
+                listing = new DirectoryListing(api.getRepositoryTree(repo, dir, ref, false));
+            } catch (FileNotFoundException fnf) {
+                // the directory does not exist, so neither does anything in it, or the project cannot be seen yet
+                listing = DirectoryListing.NONE;
+            }
+            context.putListing(ref, dir, listing);
+        } else {
+            context.getMetrics().increment("directory listings reused");
+        }
+        // a directory that could not be listed may just not be visible yet, so that only says something for now
+        return new Answer(listing.stat(path), listing != DirectoryListing.NONE);
+    }
+
+    /**
+     * Whether the path is a file in the same directory at another ref, in which case it most likely is one at this
+     * ref too, and a {@code HEAD} request on it is cheaper than listing the directory. Otherwise the file is most
+     * likely missing, which only a listing tells for sure, along with the paths that differ in case only.
+     */
+    private boolean isFileElsewhere(@Nonnull String dir, @Nonnull String path) {
+        DirectoryListing elsewhere = context.getLatestListing(dir);
+        return elsewhere != null && elsewhere.stat(path).getType() == SCMFile.Type.REGULAR_FILE;
+    }
+
+    /**
+     * Checks whether a file exists with a {@code HEAD} request on the repository files API, which answers with
+     * headers only.
+     *
+     * @return {@code false} if the file is missing or the server cannot tell, in which case the directory is to be
+     * listed, as the path might be a directory, or a file with a different case.
+     */
+    private boolean headFile(@Nonnull String path) {
+        String endpoint = context.getEndpoint();
+        Long until = NO_FILE_HEAD.get(endpoint);
+        if (until != null) {
+            if (System.currentTimeMillis() < until) {
+                return false;
+            }
+            NO_FILE_HEAD.remove(endpoint, until);
+        }
+        context.getMetrics().increment("file HEAD requests");
+        boolean exists = doHeadFile(endpoint, path);
+        if (!exists) {
+            context.getMetrics().increment("file HEAD requests followed by a directory listing");
+        }
+        return exists;
+    }
+
+    private boolean doHeadFile(@Nonnull String endpoint, @Nonnull String path) {
+        HttpURLConnection connection = null;
+        try {
+            connection = Connector.request(api, GitlabProject.URL + "/" + repo.getId() + "/repository/files?file_path="
+                    + URLEncoder.encode(path, "UTF-8") + "&ref=" + URLEncoder.encode(ref, "UTF-8"), "HEAD", TIMEOUT);
+            int code = connection.getResponseCode();
+            if (code == HttpURLConnection.HTTP_NOT_FOUND) {
+                return false;
+            }
+            boolean blob = connection.getHeaderField("X-Gitlab-Blob-Id") != null;
+            if (code == HttpURLConnection.HTTP_OK && blob) {
+                return true;
+            }
+            if (code == HttpURLConnection.HTTP_OK || code == HttpURLConnection.HTTP_BAD_METHOD) {
+                // the server does not know about HEAD on this API, which will not change until it is upgraded
+                LOGGER.log(Level.FINE, "HEAD on the files API of {0} answered HTTP {1}, listing directories instead",
+                        new Object[]{endpoint, code});
+                NO_FILE_HEAD.put(endpoint, System.currentTimeMillis() + NO_FILE_HEAD_MILLIS);
+            } else {
+                LOGGER.log(Level.FINE, "HEAD on the files API of {0} answered HTTP {1}", new Object[]{endpoint, code});
+            }
+            return false;
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "HEAD on the files API of " + endpoint + " failed", e);
+            return false;
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * What {@link #stat(String)} found out, and whether it holds for good at the commit.
+     */
+    private static final class Answer {
+        private final SCMProbeStat stat;
+        private final boolean definitive;
+
+        Answer(SCMProbeStat stat, boolean definitive) {
+            this.stat = stat;
+            this.definitive = definitive;
+        }
     }
 
     @Override
@@ -119,7 +263,7 @@ class GitLabSCMProbe extends SCMProbe {
         } else {
             ref = this.ref;
         }
-        return new GitLabSCMFile(api, repo, ref);
+        return new GitLabSCMFile(context.getEndpoint(), api, repo, ref);
     }
 
 }
\ No newline at end of file
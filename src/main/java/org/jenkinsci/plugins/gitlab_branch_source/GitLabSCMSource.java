@@ -31,6 +31,7 @@ import hudson.security.ACL;
 import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
 import jenkins.plugins.git.AbstractGitSCMSource;
+import jenkins.scm.api.SCMEvent;
 import jenkins.scm.api.SCMHead;
 import jenkins.scm.api.SCMHeadCategory;
 import jenkins.scm.api.SCMHeadEvent;
@@ -46,6 +47,7 @@ import jenkins.scm.api.metadata.ObjectMetadataAction;
 import jenkins.scm.api.metadata.PrimaryInstanceMetadataAction;
 import jenkins.scm.impl.ChangeRequestSCMHeadCategory;
 import jenkins.scm.impl.UncategorizedSCMHeadCategory;
+import jenkins.util.Timer;
 import org.apache.commons.lang.StringUtils;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
@@ -71,18 +73,23 @@ import javax.annotation.Nonnull;
 import javax.inject.Inject;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.net.URLEncoder;
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -96,6 +103,14 @@ public class GitLabSCMSource extends AbstractGitSCMSource {
      */
     // TODO remove once baseline Git plugin 3.0.2+
     private static final AtomicLong jenkins41244Warning = new AtomicLong();
+    /**
+     * How many merge requests are asked for by number in a single API call.
+     */
+    private static final int MAX_MERGE_REQUESTS_PER_LOOKUP = 20;
+    /**
+     * Up to how many included branches are looked up one by one rather than by listing all branches.
+     */
+    private static final int MAX_BRANCH_LOOKUPS = 10;
 
     private final String endpoint;
 
@@ -151,6 +166,11 @@ public class GitLabSCMSource extends AbstractGitSCMSource {
      */
     @Nonnull
     private transient /*effectively final*/ Map<Integer,ContributorMetadataAction> pullRequestContributorCache;
+    /**
+     * The open merge requests as of the last full scan, so that the next one only lists what was updated since.
+     */
+    @CheckForNull
+    private transient volatile MergeRequestSnapshot mergeRequestSnapshot;
 
     @DataBoundConstructor
     public GitLabSCMSource(String id, String endpoint, String checkoutCredentialsId, String repoOwner, String repository) {
@@ -375,25 +395,49 @@ public class GitLabSCMSource extends AbstractGitSCMSource {
             }
 
             String fullName = repoOwner + "/" + repository;
-            final GitlabProject repo = gitlab.getProject(fullName);
-            listener.getLogger().format("Looking up %s%n", HyperlinkNote.encodeTo(repo.getWebUrl(), fullName));
-//            try {
-                repositoryUrl = repo.getWebUrl();
-                // TODO: collaboratorNames = new HashSet<>(repo.getCollaboratorNames());
-                collaboratorNames = Collections.emptySet();
-//            } catch (FileNotFoundException e) {
-//                // not permitted
-//                listener.getLogger().println("Not permitted to query list of collaborators, assuming none");
-//                collaboratorNames = Collections.emptySet();
-//            }
-            doRetrieve(criteria, observer, listener, gitlab, repo);
+            try {
+                final GitlabProject repo = getProject(gitlab);
+                listener.getLogger().format("Looking up %s%n", HyperlinkNote.encodeTo(repo.getWebUrl(), fullName));
+//                try {
+                    repositoryUrl = repo.getWebUrl();
+                    // TODO: collaboratorNames = new HashSet<>(repo.getCollaboratorNames());
+                    collaboratorNames = Collections.emptySet();
+//                } catch (FileNotFoundException e) {
+//                    // not permitted
+//                    listener.getLogger().println("Not permitted to query list of collaborators, assuming none");
+//                    collaboratorNames = Collections.emptySet();
+//                }
+                GitLabScanContext context = new GitLabScanContext(endpoint, gitlab, repo);
+                CriteriaProber prober = CriteriaProber.create(endpoint, criteria, listener);
+                try {
+                    if (!(event instanceof GitLabSCMHeadEvent
+                            && retrieve((GitLabSCMHeadEvent) event, criteria, observer, listener, context, prober))) {
+                        doRetrieve(criteria, observer, listener, context, prober);
+                    }
+                } finally {
+                    prober.close();
+                    context.close();
+                }
+                context.getMetrics().print(listener.getLogger());
+            } catch (PagedIterable.FetchException e) {
+                IOException cause = e.rethrow();
+                Connector.checkFailure(gitlab, cause);
+                throw cause;
+            } catch (IOException e) {
+                Connector.checkFailure(gitlab, e);
+                GitLabProjectCatalog.get().invalidate(endpoint, fullName);
+                throw e;
+            }
             listener.getLogger().format("%nDone examining %s%n%n", fullName);
 //        } catch (RateLimitExceededException rle) {
 //            throw new AbortException(rle.getMessage());
 //        }
     }
 
-    private void doRetrieve(SCMSourceCriteria criteria, SCMHeadObserver observer, TaskListener listener, GitlabAPI api, GitlabProject repo) throws IOException, InterruptedException {
+    private void doRetrieve(final SCMSourceCriteria criteria, final SCMHeadObserver observer, final TaskListener listener,
+                            final GitLabScanContext context, CriteriaProber prober) throws IOException, InterruptedException {
+        GitlabAPI api = context.getApi();
+        GitlabProject repo = context.getProject();
         boolean wantPRs = true;
         boolean wantBranches = true;
         Set<Integer> wantPRNumbers = null;
@@ -418,9 +462,28 @@ public class GitLabSCMSource extends AbstractGitSCMSource {
         // so we can skip corresponding origin branches later. Awkward.
         Set<String> originBranchesWithPR = new HashSet<>();
 
-        if ((wantPRs || (wantBranches && (!buildOriginBranch || !buildOriginBranchWithPR)))
+        boolean listPRs = (wantPRs || (wantBranches && (!buildOriginBranch || !buildOriginBranchWithPR)))
                 && (buildOriginBranchWithPR || buildOriginPRMerge || buildOriginPRHead || buildForkPRMerge
-                || buildForkPRHead)) {
+                || buildForkPRHead);
+
+        // branch name to head commit
+        Iterable<Map.Entry<String, String>> branchHeads = null;
+        if (wantBranches && (buildOriginBranch || buildOriginBranchWithPR)) {
+            listener.getLogger().format("%n  Getting remote branches...%n");
+            branchHeads = branchHeads(retrieveBranches(includes, wantBranchCount, listener, context));
+            if (includes == null && listPRs) {
+                // a full scan needs the whole listing anyway, and having it before the pull requests means the
+                // branches they target need no further lookups; only keep the names and hashes around though
+                Map<String, String> heads = new LinkedHashMap<>();
+                for (Map.Entry<String, String> b : branchHeads) {
+                    heads.put(b.getKey(), b.getValue());
+                    context.getTargetRefs().seed(repo.getId(), b.getKey(), b.getValue());
+                }
+                branchHeads = heads.entrySet();
+            }
+        }
+
+        if (listPRs) {
             int pullrequests = 0;
             boolean onlyWantPRBranch = false;
             if (includes != null && wantBranches && wantBranchCount == 1 && wantPRNumbers.size() == 1) {
@@ -452,17 +515,14 @@ public class GitLabSCMSource extends AbstractGitSCMSource {
                             && brh.equals(prh.getTarget());
                 }
             }
+            // when every origin branch gets built regardless of its PRs, the included branches do not need the PR list
+            boolean onlyWantIncludedPRs = includes != null
+                    && (!wantBranches || onlyWantPRBranch || (buildOriginBranch && buildOriginBranchWithPR));
             Iterable<GitlabMergeRequest> pullRequests;
-            if (includes != null && (!wantBranches || onlyWantPRBranch) && wantPRNumbers.size() == 1) {
+            if (onlyWantIncludedPRs && wantPRNumbers.size() == 1) {
                 // Special case optimization. We only want one PR number and we don't need to get any branches
                 //
                 // Here we can just get the only PR we are interested in and save API rate limit
-                // if we needed more than one PR, we would have to make multiple API calls, one for each PR
-                // and thus a single call to getMergeRequests would be expected to be cheaper (note that if there
-                // are multiple pages of pull requests and we are only interested in two pull requests on the last
-                // page then this assumption would break down... but in general this will not be the expected case
-                // hence we only optimize for the single PR case as that is expected to be common when validating
-                // events
                 int number = wantPRNumbers.iterator().next();
                 listener.getLogger().format("%n  Getting remote pull request #%d...%n", number);
                 GitlabMergeRequest pr = api.getMergeRequest(repo,number);
@@ -471,13 +531,20 @@ public class GitLabSCMSource extends AbstractGitSCMSource {
                 } else {
                     pullRequests = Collections.singletonList(pr);
                 }
+            } else if (onlyWantIncludedPRs && !wantPRNumbers.isEmpty()) {
+                // A handful of PRs, typically from a burst of events: ask for exactly those rather than listing
+                // all of them, as the ones we want could well be on the last page
+                listener.getLogger().format("%n  Getting remote pull requests %s...%n", new TreeSet<>(wantPRNumbers));
+                pullRequests = retrieveMergeRequests(api, repo, wantPRNumbers);
+            } else if (includes == null) {
+                pullRequests = retrieveOpenMergeRequests(listener, context);
             } else {
                 listener.getLogger().format("%n  Getting remote pull requests...%n");
                 // we use a paged iterable so that if the observer is finished observing we stop making API calls
-                pullRequests = api.getOpenMergeRequests(repo);
+                pullRequests = context.list(openMergeRequestsUrl(repo), GitlabMergeRequest[].class);
             }
             Set<Integer> pullRequestMetadataKeys = new HashSet<>();
-            for (GitlabMergeRequest mr : pullRequests) {
+            for (final GitlabMergeRequest mr : pullRequests) {
                 checkInterrupt();
                 int number = mr.getIid();
                 if (includes != null && !wantBranches && !wantPRNumbers.contains(number)) {
@@ -511,40 +578,10 @@ public class GitLabSCMSource extends AbstractGitSCMSource {
                 if (!trusted) {
                     listener.getLogger().format("    (not from a trusted source)%n");
                 }
-                for (boolean merge : new boolean[] {false, true}) {
-                    String branchName = "MR-" + number;
-                    if (merge && fork) {
-                        if (!buildForkPRMerge) {
-                            continue; // not doing this combination
-                        }
-                        if (buildForkPRHead) {
-                            branchName += "-merge"; // make sure they are distinct
-                        }
-                        // If we only build merged, or only unmerged, then we use the /MR-\d+/ scheme as before.
-                    }
-                    if (merge && !fork) {
-                        if (!buildOriginPRMerge) {
-                            continue;
-                        }
-                        if (buildForkPRHead) {
-                            branchName += "-merge";
-                        }
-                    }
-                    if (!merge && fork) {
-                        if (!buildForkPRHead) {
-                            continue;
-                        }
-                        if (buildForkPRMerge) {
-                            branchName += "-head";
-                        }
-                    }
-                    if (!merge && !fork) {
-                        if (!buildOriginPRHead) {
-                            continue;
-                        }
-                        if (buildOriginPRMerge) {
-                            branchName += "-head";
-                        }
+                for (final boolean merge : new boolean[] {false, true}) {
+                    String branchName = mergeRequestHeadName(number, fork, merge);
+                    if (branchName == null) {
+                        continue; // not doing this combination
                     }
                     pullRequestMetadataCache.put(number,
                             new ObjectMetadataAction(
@@ -560,43 +597,55 @@ public class GitLabSCMSource extends AbstractGitSCMSource {
                             user.getEmail()
                             ));
                     pullRequestMetadataKeys.add(number);
-                    MergeRequestSCMHead head = new MergeRequestSCMHead(repo, mr, branchName, merge);
+                    final MergeRequestSCMHead head = new MergeRequestSCMHead(repo, mr, branchName, merge);
                     if (includes != null && !includes.contains(head)) {
                         // don't waste rate limit testing a head we are not interested in
                         continue;
                     }
-                    listener.getLogger().format("    Job name: %s%n", branchName);
-                    if (criteria != null) {
-                        // Would be more precise to check whether the merge of the base branch head with the PR branch head contains a given file, etc.,
-                        // but this would be a lot more work, and is unlikely to differ from using refs/pull/123/merge:
-
-                        SCMSourceCriteria.Probe probe = createProbe(head, null);
-                        if (criteria.isHead(probe, listener)) {
-                            // FYI https://developer.github.com/v3/pulls/#response-1
-                            String mergeable = mr.getMergeStatus();
-                            if (mergeable.equals("cannot_be_merged")) {
-                                if (merge)  {
-                                    listener.getLogger().format("      Not mergeable, build likely to fail%n");
-                                } else {
-                                    listener.getLogger().format("      Not mergeable, but will be built anyway%n");
+                    // Would be more precise to check whether the merge of the base branch head with the PR branch head contains a given file, etc.,
+                    // but this would be a lot more work, and is unlikely to differ from using refs/pull/123/merge:
+                    // the merge commit is not stable, but the head of a merge request is
+                    SCMSourceCriteria.Probe probe = criteria == null ? null
+                            : createProbe(head, null, merge ? null : mr.getSha(), context);
+                    boolean observing = prober.submit(String.format("    Job name: %s%n", branchName), probe,
+                            new CriteriaProber.Outcome() {
+                                @Override
+                                public boolean completed(boolean met) throws IOException, InterruptedException {
+                                    if (criteria != null) {
+                                        if (met) {
+                                            // FYI https://developer.github.com/v3/pulls/#response-1
+                                            String mergeable = mr.getMergeStatus();
+                                            if (mergeable.equals("cannot_be_merged")) {
+                                                if (merge)  {
+                                                    listener.getLogger().format("      Not mergeable, build likely to fail%n");
+                                                } else {
+                                                    listener.getLogger().format("      Not mergeable, but will be built anyway%n");
+                                                }
+                                            }
+                                            listener.getLogger().format("    Met criteria%n");
+                                        } else {
+                                            listener.getLogger().format("    Does not meet criteria%n");
+                                            return true;
+                                        }
+                                    }
+                                    String baseHash = context.getTargetRefs().resolve(mr.getTargetProjectId(), mr.getTargetBranch());
+                                    MergeRequestSCMRevision rev = new MergeRequestSCMRevision(head, baseHash, mr.getSha());
+                                    observer.observe(head, rev);
+                                    return observer.isObserving();
                                 }
-                            }
-                            listener.getLogger().format("    Met criteria%n");
-                        } else {
-                            listener.getLogger().format("    Does not meet criteria%n");
-                            continue;
-                        }
-                    }
-                    String baseHash = api.getBranch(mr.getTargetProjectId(),mr.getTargetBranch()).getCommit().getId();
-                    MergeRequestSCMRevision rev = new MergeRequestSCMRevision(head, baseHash, mr.getSha());
-                    observer.observe(head, rev);
-                    if (!observer.isObserving()) {
+                            });
+                    if (!observing) {
                         return;
                     }
                 }
                 pullrequests++;
             }
+            if (!prober.finish()) {
+                return;
+            }
             listener.getLogger().format("%n  %d pull requests were processed%n", pullrequests);
+            listener.getLogger().format("  Target branch heads: %d looked up, %d reused%n",
+                    context.getTargetRefs().getMisses(), context.getTargetRefs().getHits());
             if (includes == null) {
                 // we did a full scan, so trim the cache entries
                 this.pullRequestMetadataCache.keySet().retainAll(pullRequestMetadataKeys);
@@ -604,53 +653,19 @@ public class GitLabSCMSource extends AbstractGitSCMSource {
             }
         }
 
-        if (wantBranches && (buildOriginBranch || buildOriginBranchWithPR)) {
-            listener.getLogger().format("%n  Getting remote branches...%n");
-            int branches = 0;
-            Map<String, GitlabBranch> branchMap;
-            if (includes != null && wantBranchCount == 1) {
-                // Special case optimization. We only want one branch
-                //
-                // Here we can just get the only branch we are interested in and save API rate limit
-                // if we needed more than one branch, we would have to make multiple API calls, one for each branch
-                // and thus a single call to getBranch would be expected to be cheaper (note that if there
-                // are multiple pages of branches and we are only interested in two branches then this assumption
-                // would break down... but in general this will not be the expected case
-                // hence we only optimize for the single branch case as that is expected to be common when validating
-                // events
-                BranchSCMHead head = null;
-                for (SCMHead h : includes) {
-                    if (h instanceof BranchSCMHead) {
-                        head = (BranchSCMHead) h;
-                        break;
-                    }
-                }
-                GitlabBranch branch = null;
-                try {
-                    branch = head != null ? api.getBranch(repo,head.getName()) : null;
-                } catch (FileNotFoundException ignore) {
-                    // this exception implies that the head has been deleted
-                    // a more generic exception would indicate an IO error
-                }
-                if (branch == null) {
-                    branchMap = Collections.emptyMap();
-                } else {
-                    branchMap = Collections.singletonMap(branch.getName(), branch);
-                }
-            } else {
-                branchMap = new HashMap<>();
-                for (GitlabBranch b : api.getBranches(repo)) {
-                    branchMap.put(b.getName(), b);
-                }
-            }
-
-            for (Map.Entry<String, GitlabBranch> entry : branchMap.entrySet()) {
+        if (branchHeads != null) {
+            listener.getLogger().format("%n  Checking remote branches...%n");
+            final AtomicInteger branches = new AtomicInteger();
+            int excluded = 0;
+            for (Map.Entry<String, String> entry : branchHeads) {
                 checkInterrupt();
                 final String branchName = entry.getKey();
                 if (isExcluded(branchName)) {
+                    context.getMetrics().increment("branches filtered locally");
+                    excluded++;
                     continue;
                 }
-                SCMHead head = new BranchSCMHead(branchName);
+                final SCMHead head = new BranchSCMHead(branchName);
                 if (includes != null && !includes.contains(head)) {
                     // don't waste rate limit testing a head we are not interested in
                     continue;
@@ -664,25 +679,387 @@ public class GitLabSCMSource extends AbstractGitSCMSource {
                     listener.getLogger().format("%n    Skipping branch %s since there is a corresponding PR%n", branchName);
                     continue;
                 }
-                listener.getLogger().format("%n    Checking branch %s%n", HyperlinkNote.encodeTo(repo.getWebUrl() + "/tree/" + branchName, branchName));
-                SCMRevision hash = new SCMRevisionImpl(head, entry.getValue().getCommit().getId());
-                if (criteria != null) {
-                    SCMSourceCriteria.Probe probe = createProbe(head, hash);
-                    if (criteria.isHead(probe, listener)) {
-                        listener.getLogger().format("    Met criteria%n");
-                    } else {
-                        listener.getLogger().format("    Does not meet criteria%n");
+                final SCMRevision hash = new SCMRevisionImpl(head, entry.getValue());
+                SCMSourceCriteria.Probe probe = criteria == null ? null : createProbe(head, hash, null, context);
+                boolean observing = prober.submit(String.format("%n    Checking branch %s%n",
+                        HyperlinkNote.encodeTo(repo.getWebUrl() + "/tree/" + branchName, branchName)), probe,
+                        new CriteriaProber.Outcome() {
+                            @Override
+                            public boolean completed(boolean met) throws IOException, InterruptedException {
+                                if (criteria != null) {
+                                    if (met) {
+                                        listener.getLogger().format("    Met criteria%n");
+                                    } else {
+                                        listener.getLogger().format("    Does not meet criteria%n");
+                                        return true;
+                                    }
+                                }
+                                observer.observe(head, hash);
+                                if (!observer.isObserving()) {
+                                    return false;
+                                }
+                                branches.incrementAndGet();
+                                return true;
+                            }
+                        });
+                if (!observing) {
+                    return;
+                }
+            }
+            if (!prober.finish()) {
+                return;
+            }
+            listener.getLogger().format("%n  %d branches were processed%n", branches.get());
+            long searched = context.getMetrics().get("branches matched by server-side search");
+            if (searched > 0) {
+                listener.getLogger().format("  %d branches were left by the server-side search, %d of which were "
+                        + "filtered out locally%n", searched, excluded);
+            } else if (excluded > 0) {
+                listener.getLogger().format("  %d branches were filtered out locally%n", excluded);
+            }
+        }
+    }
+
+    /**
+     * Acts upon a hook using what its payload says, rather than looking the branch or merge request up again.
+     *
+     * @return {@code false} if the payload is not enough, and the heads have to be retrieved the usual way.
+     */
+    private boolean retrieve(final GitLabSCMHeadEvent event, final SCMSourceCriteria criteria,
+                             final SCMHeadObserver observer, final TaskListener listener,
+                             final GitLabScanContext context, CriteriaProber prober)
+            throws IOException, InterruptedException {
+        Set<SCMHead> includes = observer.getIncludes();
+        final GitLabWebHookPayload payload = event.getPayload();
+        if (includes == null || includes.isEmpty() || !event.isMatch(this) || payload.getAfter() == null) {
+            return false;
+        }
+        if (event.getPayloads().size() > 1) {
+            // several refs coalesced into one event, which the targeted scan of the includes handles in one go
+            return false;
+        }
+        final boolean removed = event.getType() == SCMEvent.Type.REMOVED;
+        switch (payload.getKind()) {
+            case PUSH: {
+                // without both of these, whether the branch is built depends upon its merge requests
+                if (!buildOriginBranch || !buildOriginBranchWithPR) {
+                    return false;
+                }
+                final BranchSCMHead head = new BranchSCMHead(payload.getRef());
+                if (!includes.equals(Collections.singleton(head)) || isExcluded(head.getName())) {
+                    return false;
+                }
+                if (removed) {
+                    listener.getLogger().format("%n  Branch %s was deleted%n", head.getName());
+                    return true;
+                }
+                final SCMRevision hash = new SCMRevisionImpl(head, payload.getAfter());
+                SCMSourceCriteria.Probe probe = criteria == null ? null : createProbe(head, hash, null, context);
+                prober.submit(String.format("%n  Checking branch %s pushed to %s%n", head.getName(),
+                        payload.getAfter()), probe, new CriteriaProber.Outcome() {
+                    @Override
+                    public boolean completed(boolean met) throws IOException, InterruptedException {
+                        if (criteria != null && !met) {
+                            listener.getLogger().format("    Does not meet criteria%n");
+                            return true;
+                        }
+                        observer.observe(head, hash);
+                        return observer.isObserving();
+                    }
+                });
+                prober.finish();
+                context.getMetrics().increment("heads resolved from hook payloads");
+                return true;
+            }
+            case MERGE_REQUEST: {
+                final int number = payload.getNumber();
+                Map<Boolean, MergeRequestSCMHead> heads = new LinkedHashMap<>();
+                for (boolean merge : new boolean[]{false, true}) {
+                    MergeRequestSCMHead head = event.mergeRequestHead(this, merge);
+                    if (head != null) {
+                        heads.put(merge, head);
+                    }
+                }
+                if (!heads.values().containsAll(includes)) {
+                    return false;
+                }
+                if (removed) {
+                    listener.getLogger().format("%n  Pull request #%d was closed%n", number);
+                    return true;
+                }
+                listener.getLogger().format("%n  Checking pull request %s%n", payload.getUrl() == null
+                        ? "#" + number : HyperlinkNote.encodeTo(payload.getUrl(), "#" + number));
+                pullRequestMetadataCache.put(number,
+                        new ObjectMetadataAction(payload.getTitle(), payload.getDescription(), payload.getUrl()));
+                if (!pullRequestContributorCache.containsKey(number)) {
+                    ContributorMetadataAction contributor = contributor(payload);
+                    if (contributor != null) {
+                        pullRequestContributorCache.put(number, contributor);
+                    }
+                }
+                for (Map.Entry<Boolean, MergeRequestSCMHead> entry : heads.entrySet()) {
+                    final boolean merge = entry.getKey();
+                    final MergeRequestSCMHead head = entry.getValue();
+                    if (!includes.contains(head)) {
                         continue;
                     }
+                    SCMSourceCriteria.Probe probe = criteria == null ? null
+                            : createProbe(head, null, merge ? null : payload.getAfter(), context);
+                    boolean observing = prober.submit(String.format("    Job name: %s%n", head.getName()), probe,
+                            new CriteriaProber.Outcome() {
+                                @Override
+                                public boolean completed(boolean met) throws IOException, InterruptedException {
+                                    if (criteria != null && !met) {
+                                        listener.getLogger().format("    Does not meet criteria%n");
+                                        return true;
+                                    }
+                                    if (merge && "cannot_be_merged".equals(payload.getMergeStatus())) {
+                                        listener.getLogger().format("      Not mergeable, build likely to fail%n");
+                                    }
+                                    // the payload does not carry the head of the target branch
+                                    String baseHash = context.getTargetRefs().resolve(payload.getTargetProjectId(),
+                                            payload.getTargetBranch());
+                                    observer.observe(head, new MergeRequestSCMRevision(head, baseHash,
+                                            payload.getAfter()));
+                                    return observer.isObserving();
+                                }
+                            });
+                    if (!observing) {
+                        break;
+                    }
                 }
-                observer.observe(head, hash);
-                if (!observer.isObserving()) {
-                    return;
+                prober.finish();
+                context.getMetrics().increment("heads resolved from hook payloads");
+                return true;
+            }
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * The author of the merge request of a hook. The hook only says who it is when the merge request is opened;
+     * later hooks are triggered by other users, and the author is then left to the next scan.
+     *
+     * @return {@code null} if the hook does not say who the author is.
+     */
+    @CheckForNull
+    private static ContributorMetadataAction contributor(@Nonnull GitLabWebHookPayload payload) {
+        if (payload.getAuthorUsername() == null) {
+            return null;
+        }
+        return new ContributorMetadataAction(payload.getAuthorUsername(), payload.getAuthorName(),
+                payload.getAuthorEmail());
+    }
+
+    /**
+     * The name of the head for a merge request, or {@code null} if this source does not build that combination.
+     *
+     * @param fork  whether the merge request was filed from a fork.
+     * @param merge whether the head is for the merge with the target branch, rather than the merge request head.
+     */
+    @CheckForNull
+    String mergeRequestHeadName(int number, boolean fork, boolean merge) {
+        String branchName = "MR-" + number;
+        if (merge && fork) {
+            if (!buildForkPRMerge) {
+                return null; // not doing this combination
+            }
+            if (buildForkPRHead) {
+                branchName += "-merge"; // make sure they are distinct
+            }
+            // If we only build merged, or only unmerged, then we use the /MR-\d+/ scheme as before.
+        }
+        if (merge && !fork) {
+            if (!buildOriginPRMerge) {
+                return null;
+            }
+            if (buildForkPRHead) {
+                branchName += "-merge";
+            }
+        }
+        if (!merge && fork) {
+            if (!buildForkPRHead) {
+                return null;
+            }
+            if (buildForkPRMerge) {
+                branchName += "-head";
+            }
+        }
+        if (!merge && !fork) {
+            if (!buildOriginPRHead) {
+                return null;
+            }
+            if (buildOriginPRMerge) {
+                branchName += "-head";
+            }
+        }
+        return branchName;
+    }
+
+    /**
+     * Retrieves the open merge requests with the given numbers, a few dozen per API call.
+     */
+    private List<GitlabMergeRequest> retrieveMergeRequests(GitlabAPI api, GitlabProject repo, Set<Integer> numbers)
+            throws IOException {
+        List<Integer> wanted = new ArrayList<>(new TreeSet<>(numbers));
+        List<GitlabMergeRequest> result = new ArrayList<>(wanted.size());
+        for (int i = 0; i < wanted.size(); i += MAX_MERGE_REQUESTS_PER_LOOKUP) {
+            List<Integer> chunk = wanted.subList(i, Math.min(i + MAX_MERGE_REQUESTS_PER_LOOKUP, wanted.size()));
+            StringBuilder url = new StringBuilder(openMergeRequestsUrl(repo));
+            for (Integer iid : chunk) {
+                url.append("&iids%5B%5D=").append(iid);
+            }
+            Set<Integer> missing = new HashSet<>(chunk);
+            try (PagedIterable<GitlabMergeRequest> mrs =
+                         new PagedIterable<>(api, url.toString(), GitlabMergeRequest[].class)) {
+                for (GitlabMergeRequest mr : mrs) {
+                    // check anyway, in case the server does not know the iids filter and lists all open merge requests
+                    if (missing.remove(mr.getIid())) {
+                        result.add(mr);
+                        if (missing.isEmpty()) {
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Lists the open merge requests for a full scan, incrementally from {@link #mergeRequestSnapshot} when possible.
+     */
+    private Iterable<GitlabMergeRequest> retrieveOpenMergeRequests(TaskListener listener, GitLabScanContext context)
+            throws IOException {
+        GitlabAPI api = context.getApi();
+        GitlabProject repo = context.getProject();
+        MergeRequestSnapshot snapshot = mergeRequestSnapshot;
+        if (snapshot != null && snapshot.isUsableFor(repo)) {
+            listener.getLogger().format("%n  Getting remote pull requests updated since the last scan...%n");
+            snapshot = snapshot.update(api, repo);
+            context.getMetrics().increment("incremental merge request listings");
+        } else if ((snapshot = GroupMergeRequests.get().lookup(String.valueOf(endpoint), repo)) != null) {
+            listener.getLogger().format("%n  Using pull requests prefetched for the organization...%n");
+            context.getMetrics().increment("prefetched merge request listings");
+        } else {
+            listener.getLogger().format("%n  Getting remote pull requests...%n");
+            snapshot = MergeRequestSnapshot.full(api, repo);
+            context.getMetrics().increment("full merge request listings");
+        }
+        mergeRequestSnapshot = snapshot;
+        return snapshot.getOpen();
+    }
+
+    /**
+     * Lists the branches {@link #doRetrieve(SCMSourceCriteria, SCMHeadObserver, TaskListener, GitLabScanContext, CriteriaProber)}
+     * needs to look at.
+     */
+    private Iterable<GitlabBranch> retrieveBranches(Set<SCMHead> includes, int wantBranchCount,
+                                                    TaskListener listener, GitLabScanContext context)
+            throws IOException {
+        GitlabAPI api = context.getApi();
+        GitlabProject repo = context.getProject();
+        List<String> searchTerms = includes != null ? null : branchSearchTerms(getIncludes());
+        if (includes != null && wantBranchCount <= MAX_BRANCH_LOOKUPS) {
+            // Special case optimization. We only want a few branches, typically when validating events
+            //
+            // Here we can just get the branches we are interested in and save API rate limit.
+            // GitLab cannot look up several branches by name in one call, but one call per wanted branch is
+            // still expected to be cheaper than listing all the pages of branches of a busy repository
+            List<GitlabBranch> branches = new ArrayList<>(wantBranchCount);
+            for (SCMHead h : includes) {
+                if (!(h instanceof BranchSCMHead)) {
+                    continue;
+                }
+                try {
+                    branches.add(api.getBranch(repo, h.getName()));
+                } catch (FileNotFoundException ignore) {
+                    // this exception implies that the head has been deleted
+                    // a more generic exception would indicate an IO error
+                }
+            }
+            return branches;
+        } else if (searchTerms != null) {
+            // Only a few patterns of branches are wanted, let GitLab do most of the filtering.
+            // The search is a substring match and may even be ignored by older servers, so isExcluded still has
+            // the final word, but it now only looks at a fraction of the branches
+            Map<String, GitlabBranch> branches = new LinkedHashMap<>();
+            for (String term : searchTerms) {
+                for (GitlabBranch b : new PagedIterable<>(api, GitlabProject.URL + "/" + repo.getId()
+                        + GitlabBranch.URL + "?search=" + URLEncoder.encode(term, "UTF-8"), GitlabBranch[].class)) {
+                    branches.put(b.getName(), b);
+                }
+            }
+            listener.getLogger().format("  %d branches matched the searches for %s%n", branches.size(), searchTerms);
+            context.getMetrics().add("branches matched by server-side search", branches.size());
+            return branches.values();
+        } else {
+            return context.list(GitlabProject.URL + "/" + repo.getId() + GitlabBranch.URL, GitlabBranch[].class);
+        }
+    }
+
+    /**
+     * Derives server side branch searches from the whitespace separated wildcard patterns of {@link #getIncludes()},
+     * each search being the longest literal part of a pattern.
+     *
+     * @return the search terms, or {@code null} if some pattern can match any branch and all must be listed.
+     */
+    @CheckForNull
+    static List<String> branchSearchTerms(@Nonnull String includes) {
+        Set<String> terms = new LinkedHashSet<>();
+        for (String pattern : includes.trim().split("\\s+")) {
+            if (pattern.isEmpty()) {
+                continue;
+            }
+            String longest = "";
+            for (String literal : pattern.split("\\*")) {
+                if (literal.length() > longest.length()) {
+                    longest = literal;
                 }
-                branches++;
             }
-            listener.getLogger().format("%n  %d branches were processed%n", branches);
+            if (longest.isEmpty()) {
+                return null;
+            }
+            terms.add(longest);
         }
+        return terms.isEmpty() ? null : new ArrayList<>(terms);
+    }
+
+    /**
+     * Lazily turns branches into their name and head commit.
+     */
+    private static Iterable<Map.Entry<String, String>> branchHeads(final Iterable<GitlabBranch> branches) {
+        return new Iterable<Map.Entry<String, String>>() {
+            @Override
+            public Iterator<Map.Entry<String, String>> iterator() {
+                final Iterator<GitlabBranch> delegate = branches.iterator();
+                return new Iterator<Map.Entry<String, String>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return delegate.hasNext();
+                    }
+
+                    @Override
+                    public Map.Entry<String, String> next() {
+                        GitlabBranch b = delegate.next();
+                        return new AbstractMap.SimpleImmutableEntry<>(b.getName(), b.getCommit().getId());
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * The listing of the open merge requests of a project, relative to the API root.
+     */
+    static String openMergeRequestsUrl(GitlabProject repo) {
+        return GitlabProject.URL + "/" + repo.getId() + GitlabMergeRequest.URL + "?state=opened";
     }
 
     /**
@@ -702,11 +1079,25 @@ public class GitLabSCMSource extends AbstractGitSCMSource {
 
         GitlabProject repo;
         try {
-            repo = api.getProject(fullName);
+            repo = getProject(api);
         } catch (FileNotFoundException e) {
             throw new AbortException(String.format("No such project '%s' exists in %s", fullName, api.getUrl("")));
         }
-        return new GitLabSCMProbe(api, repo, head, revision);
+        return createProbe(head, revision, null, new GitLabScanContext(endpoint, api, repo));
+    }
+
+    /**
+     * Creates a probe that reuses the connection and project already resolved by the current scan.
+     *
+     * @param commit the commit the head points to, if known without a {@link SCMRevisionImpl}.
+     */
+    @Nonnull
+    private SCMProbe createProbe(@Nonnull SCMHead head, @CheckForNull SCMRevision revision,
+                                 @CheckForNull String commit, @Nonnull GitLabScanContext context) {
+        if (commit == null && revision instanceof SCMRevisionImpl) {
+            commit = ((SCMRevisionImpl) revision).getHash();
+        }
+        return new GitLabSCMProbe(context, head, revision, commit);
     }
 
     private GitlabAPI connect(TaskListener listener) throws IOException {
@@ -721,9 +1112,28 @@ public class GitLabSCMSource extends AbstractGitSCMSource {
         GitlabAPI api = connect(listener);
 
         String fullName = repoOwner + "/" + repository;
-        GitlabProject repo = api.getProject(fullName);
-        repositoryUrl = repo.getWebUrl();
-        return doRetrieve(head, listener, api, repo);
+        try {
+            GitlabProject repo = getProject(api);
+            repositoryUrl = repo.getWebUrl();
+            return doRetrieve(head, listener, api, repo);
+        } catch (IOException e) {
+            Connector.checkFailure(api, e);
+            GitLabProjectCatalog.get().invalidate(endpoint, fullName);
+            throw e;
+        }
+    }
+
+    /**
+     * Looks up the project, from {@link GitLabProjectCatalog} when it was seen recently.
+     */
+    private GitlabProject getProject(GitlabAPI api) throws IOException {
+        String fullName = repoOwner + "/" + repository;
+        GitlabProject repo = GitLabProjectCatalog.get().lookup(endpoint, fullName);
+        if (repo == null) {
+            repo = api.getProject(fullName);
+            GitLabProjectCatalog.get().put(endpoint, repo);
+        }
+        return repo;
     }
 
     protected SCMRevision doRetrieve(SCMHead head, TaskListener listener, GitlabAPI api, GitlabProject repo) throws IOException, InterruptedException {
@@ -941,18 +1351,36 @@ public class GitLabSCMSource extends AbstractGitSCMSource {
     protected List<Action> retrieveActions(@Nonnull SCMHead head,
                                            @CheckForNull SCMHeadEvent event,
                                            @Nonnull TaskListener listener) throws IOException, InterruptedException {
-        // TODO when we have support for trusted events, use the details from event if event was from trusted source
+        // hooks are verified by their token, so what they say can be trusted
+        List<GitLabWebHookPayload> payloads = Collections.emptyList();
+        if (event instanceof GitLabSCMHeadEvent && ((GitLabSCMHeadEvent) event).isMatch(this)) {
+            payloads = ((GitLabSCMHeadEvent) event).getPayloads();
+        }
+        GitLabWebHookPayload payload = payloads.isEmpty() ? null : payloads.get(payloads.size() - 1);
         List<Action> result = new ArrayList<>();
         SCMSourceOwner owner = getOwner();
         if (owner instanceof Actionable) {
             GitLabLink repoLink = ((Actionable) owner).getAction(GitLabLink.class);
-            if (repoLink != null) {
+            String repoUrl = repoLink != null ? repoLink.getUrl() : payload != null ? payload.getProjectUrl() : null;
+            if (repoUrl != null) {
                 String url;
                 ObjectMetadataAction metadataAction = null;
                 if (head instanceof MergeRequestSCMHead) {
                     // pull request to this repository
                     int number = ((MergeRequestSCMHead) head).getNumber();
-                    url = repoLink.getUrl() + "/merge_requests/" + number;
+                    url = repoUrl + "/merge_requests/" + number;
+                    for (GitLabWebHookPayload p : payloads) {
+                        if (p.getKind() == GitLabWebHookPayload.Kind.MERGE_REQUEST && p.getNumber() == number) {
+                            pullRequestMetadataCache.put(number, new ObjectMetadataAction(p.getTitle(),
+                                    p.getDescription(), p.getUrl() != null ? p.getUrl() : url));
+                            // the author never changes, and what was looked up from the API stays
+                            ContributorMetadataAction contributor = pullRequestContributorCache.containsKey(number)
+                                    ? null : contributor(p);
+                            if (contributor != null) {
+                                pullRequestContributorCache.put(number, contributor);
+                            }
+                        }
+                    }
                     metadataAction = pullRequestMetadataCache.get(number);
                     if (metadataAction == null) {
                         // best effort
@@ -964,13 +1392,17 @@ public class GitLabSCMSource extends AbstractGitSCMSource {
                     }
                 } else {
                     // branch in this repository
-                    url = repoLink.getUrl() + "/tree/" + head.getName();
+                    url = repoUrl + "/tree/" + head.getName();
                     metadataAction = new ObjectMetadataAction(head.getName(), null, url);
                 }
                 result.add(new GitLabLink("icon-github-branch", url));
                 result.add(metadataAction);
             }
-            if (head instanceof BranchSCMHead) {
+            if (head instanceof BranchSCMHead && payload != null && payload.getProjectDefaultBranch() != null) {
+                if (payload.getProjectDefaultBranch().equals(head.getName())) {
+                    result.add(new PrimaryInstanceMetadataAction());
+                }
+            } else if (head instanceof BranchSCMHead) {
                 for (GitLabDefaultBranch p : ((Actionable) owner).getActions(GitLabDefaultBranch.class)) {
                     if (StringUtils.equals(getRepoOwner(), p.getRepoOwner())
                             && StringUtils.equals(repository, p.getRepository())
@@ -991,18 +1423,40 @@ public class GitLabSCMSource extends AbstractGitSCMSource {
     @Override
     protected List<Action> retrieveActions(@CheckForNull SCMSourceEvent event,
                                            @Nonnull TaskListener listener) throws IOException {
-        // TODO when we have support for trusted events, use the details from event if event was from trusted source
         List<Action> result = new ArrayList<>();
         result.add(new GitLabProjectMetadataAction());
-        GitlabAPI api = connect(listener);
-
-        GitlabProject repo = api.getProject(getRepoOwner() + '/' + repository);
-        repositoryUrl = repo.getWebUrl();
+        String fullName = getRepoOwner() + '/' + repository;
+        GitLabWebHookPayload payload = null;
+        if (event instanceof GitLabSCMSourceEvent && ((GitLabSCMSourceEvent) event).isMatch(this)) {
+            // hooks are verified by their token, so what they say can be trusted, and the catalogued project
+            // only needs to go if it is out of date
+            payload = ((GitLabSCMSourceEvent) event).getPayload();
+            GitLabProjectCatalog.get().refresh(payload);
+        } else if (event != null) {
+            // whatever the event is about, the project details may have changed
+            GitLabProjectCatalog.get().invalidate(endpoint, fullName);
+        }
+        String webUrl = payload == null ? null : Util.fixEmpty(payload.getProjectUrl());
+        String description = payload == null ? null : payload.getProjectDescription();
+        String defaultBranch = payload == null ? null : Util.fixEmpty(payload.getProjectDefaultBranch());
+        if (webUrl == null || description == null || defaultBranch == null) {
+            // fill in what the hook does not say, going to GitLab only if the catalog cannot either
+            GitlabProject repo = GitLabProjectCatalog.get().lookup(endpoint, fullName);
+            if (repo == null && (webUrl == null || defaultBranch == null)) {
+                repo = getProject(connect(listener));
+            }
+            if (repo != null) {
+                webUrl = webUrl != null ? webUrl : Util.fixEmpty(repo.getWebUrl());
+                description = description != null ? description : repo.getDescription();
+                defaultBranch = defaultBranch != null ? defaultBranch : repo.getDefaultBranch();
+            }
+        }
+        repositoryUrl = webUrl;
 
-        result.add(new ObjectMetadataAction(null, repo.getDescription(), Util.fixEmpty(repo.getWebUrl())));
-        result.add(new GitLabLink("icon-github-repo", repo.getWebUrl()));
-        if (StringUtils.isNotBlank(repo.getDefaultBranch())) {
-            result.add(new GitLabDefaultBranch(getRepoOwner(), repository, repo.getDefaultBranch()));
+        result.add(new ObjectMetadataAction(null, description, webUrl));
+        result.add(new GitLabLink("icon-github-repo", webUrl));
+        if (StringUtils.isNotBlank(defaultBranch)) {
+            result.add(new GitLabDefaultBranch(getRepoOwner(), repository, defaultBranch));
         }
         return result;
     }
@@ -1012,11 +1466,23 @@ public class GitLabSCMSource extends AbstractGitSCMSource {
      */
     @Override
     public void afterSave() {
-        // TODO
-//        SCMSourceOwner owner = getOwner();
-//        if (owner != null) {
-//            GitLabWebHook.get().registerHookFor(owner);
-//        }
+        final SCMSourceOwner owner = getOwner();
+        if (owner == null || repository == null || repository.isEmpty()) {
+            return;
+        }
+        // off the request thread, as GitLab may well be slow or unreachable
+        Timer.get().submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    GitlabAPI api = Connector.connect(owner, endpoint);
+                    GitLabWebHook.register(api, getProject(api), endpoint);
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Could not register a GitLab hook for " + repoOwner + "/" + repository
+                            + ", changes will only be noticed by scans", e);
+                }
+            }
+        });
     }
 
     @Extension
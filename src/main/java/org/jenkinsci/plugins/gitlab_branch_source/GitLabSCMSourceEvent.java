@@ -0,0 +1,50 @@
+package org.jenkinsci.plugins.gitlab_branch_source;
+
+import jenkins.scm.api.SCMNavigator;
+import jenkins.scm.api.SCMSource;
+import jenkins.scm.api.SCMSourceEvent;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+/**
+ * The details of a GitLab project (description, web URL, default branch) changed, as noticed in a hook, in which
+ * case {@link GitLabSCMSource} looks the project up again.
+ */
+final class GitLabSCMSourceEvent extends SCMSourceEvent<GitLabWebHookPayload> {
+    GitLabSCMSourceEvent(@Nonnull Type type, @Nonnull GitLabWebHookPayload payload, @CheckForNull String origin) {
+        super(type, payload, origin);
+    }
+
+    /**
+     * Whether the event is about the project of the source.
+     */
+    boolean isMatch(@Nonnull GitLabSCMSource source) {
+        return GitLabSCMHeadEvent.isMatch(getPayload(), source);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isMatch(@Nonnull SCMSource source) {
+        return source instanceof GitLabSCMSource && isMatch((GitLabSCMSource) source);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isMatch(@Nonnull SCMNavigator navigator) {
+        return GitLabSCMHeadEvent.isMatch(getPayload(), navigator);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Nonnull
+    @Override
+    public String getSourceName() {
+        return GitLabSCMHeadEvent.getSourceName(getPayload());
+    }
+}
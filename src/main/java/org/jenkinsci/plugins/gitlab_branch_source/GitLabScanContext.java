@@ -0,0 +1,137 @@
+package org.jenkinsci.plugins.gitlab_branch_source;
+
+import org.gitlab.api.GitlabAPI;
+import org.gitlab.api.models.GitlabProject;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * State that is resolved once per {@link GitLabSCMSource} scan and shared by everything created during it,
+ * most notably the {@link GitLabSCMProbe}s, so that evaluating the criteria of each head does not have to
+ * connect and look up the project again.
+ */
+final class GitLabScanContext implements Closeable {
+    private static final int MAX_LISTINGS = 256;
+
+    /**
+     * Maps to {@link com.dabsquared.gitlabjenkins.connection.GitLabConnection#getName()}
+     */
+    @Nonnull
+    private final String endpoint;
+    @Nonnull
+    private final GitlabAPI api;
+    @Nonnull
+    private final GitlabProject project;
+    @Nonnull
+    private final TargetRefResolver targetRefs;
+    @Nonnull
+    private final ScanMetrics metrics = new ScanMetrics();
+    /**
+     * The directories the probes listed, by ref and directory, so that heads at the same commit and probes of
+     * several files in the same directory list it once.
+     */
+    private final Map<String, DirectoryListing> listings =
+            new LinkedHashMap<String, DirectoryListing>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, DirectoryListing> eldest) {
+                    return size() > MAX_LISTINGS;
+                }
+            };
+    /**
+     * The listing last made of each directory, whatever the ref.
+     */
+    private final Map<String, DirectoryListing> latestListings = new ConcurrentHashMap<>();
+    /**
+     * The paged listings started during the scan, which it may leave before their end.
+     */
+    private final List<PagedIterable<?>> pages = new ArrayList<>();
+
+    GitLabScanContext(@Nonnull String endpoint, @Nonnull GitlabAPI api, @Nonnull GitlabProject project) {
+        this.endpoint = endpoint;
+        this.api = api;
+        this.project = project;
+        this.targetRefs = new TargetRefResolver(api);
+    }
+
+    @Nonnull
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    @Nonnull
+    public GitlabAPI getApi() {
+        return api;
+    }
+
+    @Nonnull
+    public GitlabProject getProject() {
+        return project;
+    }
+
+    @Nonnull
+    public TargetRefResolver getTargetRefs() {
+        return targetRefs;
+    }
+
+    @Nonnull
+    public ScanMetrics getMetrics() {
+        return metrics;
+    }
+
+    @CheckForNull
+    DirectoryListing getListing(@Nonnull String ref, @Nonnull String dir) {
+        synchronized (listings) {
+            return listings.get(ref + '\t' + dir);
+        }
+    }
+
+    void putListing(@Nonnull String ref, @Nonnull String dir, @Nonnull DirectoryListing listing) {
+        synchronized (listings) {
+            listings.put(ref + '\t' + dir, listing);
+        }
+        latestListings.put(dir, listing);
+    }
+
+    /**
+     * The listing of a directory at some ref, or {@code null} if it was not listed during the scan.
+     */
+    @CheckForNull
+    DirectoryListing getLatestListing(@Nonnull String dir) {
+        return latestListings.get(dir);
+    }
+
+    /**
+     * A paged listing that is closed along with the scan, for listings that are handed around rather than consumed
+     * in one place.
+     */
+    @Nonnull
+    <T> PagedIterable<T> list(@Nonnull String tailUrl, @Nonnull Class<T[]> type) {
+        PagedIterable<T> listing = new PagedIterable<>(api, tailUrl, type);
+        synchronized (pages) {
+            pages.add(listing);
+        }
+        return listing;
+    }
+
+    /**
+     * Cancels whatever the listings of the scan are still fetching ahead.
+     */
+    @Override
+    public void close() {
+        List<PagedIterable<?>> open;
+        synchronized (pages) {
+            open = new ArrayList<>(pages);
+            pages.clear();
+        }
+        for (PagedIterable<?> listing : open) {
+            listing.close();
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package org.jenkinsci.plugins.gitlab_branch_source;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.RootAction;
+import hudson.model.UnprotectedRootAction;
+import hudson.security.csrf.CrumbExclusion;
+import jenkins.model.Jenkins;
+import jenkins.scm.api.SCMEvent;
+import jenkins.scm.api.SCMSourceEvent;
+import jenkins.security.HMACConfidentialKey;
+import net.sf.json.JSONException;
+import org.apache.commons.io.IOUtils;
+import org.gitlab.api.GitlabAPI;
+import org.gitlab.api.models.GitlabGroup;
+import org.gitlab.api.models.GitlabProject;
+import org.gitlab.api.models.GitlabProjectHook;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.HttpResponses;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.interceptor.RequirePOST;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Receives the push, tag push and merge request hooks of GitLab and turns them into {@link GitLabSCMHeadEvent}s.
+ * <p>
+ * Hooks are registered by {@link GitLabSCMSource#afterSave()} and {@link GitLabSCMNavigator#afterSave}, with a
+ * secret token derived from the name of the GitLab connection, which every request must present.
+ */
+@Extension
+public class GitLabWebHook implements UnprotectedRootAction {
+    private static final Logger LOGGER = Logger.getLogger(GitLabWebHook.class.getName());
+
+    public static final String URL_NAME = "gitlab-branch-source-webhook";
+
+    private static final HMACConfidentialKey TOKEN = new HMACConfidentialKey(GitLabWebHook.class, "token", 32);
+
+    @Override
+    public String getIconFileName() {
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return null;
+    }
+
+    @Override
+    public String getUrlName() {
+        return URL_NAME;
+    }
+
+    public static GitLabWebHook get() {
+        return Jenkins.getActiveInstance().getExtensionList(RootAction.class).get(GitLabWebHook.class);
+    }
+
+    /**
+     * Receives a hook.
+     */
+    @RequirePOST
+    public HttpResponse doIndex(StaplerRequest req) throws IOException {
+        String endpoint = Util.fixEmpty(req.getParameter("endpoint"));
+        String token = req.getHeader("X-Gitlab-Token");
+        if (token == null || !MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8),
+                tokenFor(endpoint).getBytes(StandardCharsets.UTF_8))) {
+            return HttpResponses.error(403, "Invalid or missing X-Gitlab-Token");
+        }
+        String eventType = req.getHeader("X-Gitlab-Event");
+        if (eventType == null) {
+            return HttpResponses.error(400, "Missing X-Gitlab-Event");
+        }
+        String body = IOUtils.toString(req.getInputStream(), "UTF-8");
+        GitLabWebHookPayload payload;
+        try {
+            payload = new GitLabWebHookPayload(endpoint, eventType, body);
+        } catch (IllegalArgumentException | JSONException e) {
+            LOGGER.log(Level.FINE, "Ignoring " + eventType + " from " + req.getRemoteHost(), e);
+            return HttpResponses.error(400, e.getMessage());
+        }
+        fire(payload, req.getRemoteHost() + " => " + req.getRequestURL());
+        return HttpResponses.ok();
+    }
+
+    /**
+     * Fires the event corresponding to the payload, if there is anything to act upon, once
+     * {@link GitLabEventCoalescer} has waited for the rest of the burst it might be part of. The hook is kept in
+     * {@link GitLabEventJournal} until then.
+     * <p>
+     * The project details of the payload are also checked against {@link GitLabProjectCatalog}, and if they changed
+     * a {@link GitLabSCMSourceEvent} is fired right away.
+     */
+    static void fire(@Nonnull GitLabWebHookPayload payload, @CheckForNull String origin) {
+        if (GitLabProjectCatalog.get().refresh(payload)) {
+            SCMSourceEvent.fireNow(new GitLabSCMSourceEvent(SCMEvent.Type.UPDATED, payload, origin));
+        }
+        SCMEvent.Type type = payload.getType();
+        if (type == null) {
+            LOGGER.log(Level.FINE, "Nothing to do for {0} of {1}",
+                    new Object[]{payload.getEventType(), payload.getProjectPath()});
+            return;
+        }
+        try {
+            GitLabEventJournal.get().append(payload, origin);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not journal " + payload.getEventType() + " of "
+                    + payload.getProjectPath() + ", it will be lost if Jenkins restarts before it is processed", e);
+        }
+        GitLabEventCoalescer.get().offer(payload, type, origin);
+    }
+
+    /**
+     * The secret token of the hooks of a GitLab connection.
+     */
+    static String tokenFor(@CheckForNull String endpoint) {
+        return TOKEN.mac(String.valueOf(endpoint));
+    }
+
+    /**
+     * The URL GitLab is to call for a GitLab connection, or {@code null} if the root URL of Jenkins is not known.
+     */
+    @CheckForNull
+    static String hookUrlFor(@CheckForNull String endpoint) {
+        String root = Jenkins.getActiveInstance().getRootUrl();
+        if (root == null) {
+            return null;
+        }
+        try {
+            return root + URL_NAME + "/" + (endpoint == null ? "" : "?endpoint=" + URLEncoder.encode(endpoint, "UTF-8"));
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Registers the hook on a project, unless it is already there.
+     */
+    static void register(@Nonnull GitlabAPI api, @Nonnull GitlabProject project, @CheckForNull String endpoint)
+            throws IOException {
+        register(api, GitlabProject.URL + "/" + project.getId(), project.getPathWithNamespace(), endpoint);
+    }
+
+    /**
+     * Registers the hook on a group, which only some editions of GitLab support.
+     */
+    static void register(@Nonnull GitlabAPI api, @Nonnull GitlabGroup group, @CheckForNull String endpoint)
+            throws IOException {
+        register(api, GitlabGroup.URL + "/" + group.getId(), group.getPath(), endpoint);
+    }
+
+    private static void register(GitlabAPI api, String tailUrl, String name, String endpoint) throws IOException {
+        String url = hookUrlFor(endpoint);
+        if (url == null) {
+            LOGGER.log(Level.WARNING, "Cannot register a GitLab hook for {0} as the Jenkins URL is not configured",
+                    name);
+            return;
+        }
+        try (PagedIterable<GitlabProjectHook> hooks = new PagedIterable<>(api, tailUrl + GitlabProjectHook.URL,
+                GitlabProjectHook[].class)) {
+            for (GitlabProjectHook hook : hooks) {
+                if (url.equals(hook.getUrl())) {
+                    return;
+                }
+            }
+        } catch (PagedIterable.FetchException e) {
+            throw e.getCause();
+        }
+        api.dispatch()
+                .with("url", url)
+                .with("token", tokenFor(endpoint))
+                .with("push_events", true)
+                .with("tag_push_events", true)
+                .with("merge_requests_events", true)
+                .to(tailUrl + GitlabProjectHook.URL, GitlabProjectHook.class);
+        LOGGER.log(Level.INFO, "Registered a GitLab hook for {0}", name);
+    }
+
+    /**
+     * GitLab cannot present a crumb.
+     */
+    @Extension
+    public static class CrumbExclusionImpl extends CrumbExclusion {
+        @Override
+        public boolean process(HttpServletRequest req, HttpServletResponse resp, FilterChain chain)
+                throws IOException, ServletException {
+            String pathInfo = req.getPathInfo();
+            if (pathInfo != null && (pathInfo.equals("/" + URL_NAME) || pathInfo.startsWith("/" + URL_NAME + "/"))) {
+                chain.doFilter(req, resp);
+                return true;
+            }
+            return false;
+        }
+    }
+}
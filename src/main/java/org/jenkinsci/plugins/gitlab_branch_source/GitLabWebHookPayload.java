@@ -0,0 +1,354 @@
+package org.jenkinsci.plugins.gitlab_branch_source;
+
+import jenkins.scm.api.SCMEvent;
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+/**
+ * What we need out of a GitLab push, tag push or merge request hook, so that the resulting
+ * {@link GitLabSCMHeadEvent} can be acted upon without asking GitLab again.
+ * <p>
+ * The raw body is kept as well, so that the payload can be parsed again later.
+ */
+final class GitLabWebHookPayload {
+    /**
+     * What {@code before} or {@code after} are when a ref is created or deleted.
+     */
+    static final String NO_COMMIT = "0000000000000000000000000000000000000000";
+
+    enum Kind {
+        PUSH, TAG_PUSH, MERGE_REQUEST
+    }
+
+    /**
+     * The name of the GitLab connection the hook was registered for.
+     */
+    @CheckForNull
+    private final String endpoint;
+    @Nonnull
+    private final String eventType;
+    @Nonnull
+    private final String body;
+
+    @Nonnull
+    private final Kind kind;
+    private final int projectId;
+    @Nonnull
+    private final String projectPath;
+    @CheckForNull
+    private final String projectName;
+    @CheckForNull
+    private final String projectUrl;
+    @CheckForNull
+    private final String projectDescription;
+    @CheckForNull
+    private final String projectDefaultBranch;
+    /**
+     * The branch or tag pushed to.
+     */
+    @CheckForNull
+    private final String ref;
+    @CheckForNull
+    private final String before;
+    /**
+     * The new head of the pushed ref, or the head of the merge request.
+     */
+    @CheckForNull
+    private final String after;
+
+    private final int number;
+    @CheckForNull
+    private final String action;
+    @CheckForNull
+    private final String state;
+    @CheckForNull
+    private final String title;
+    @CheckForNull
+    private final String description;
+    @CheckForNull
+    private final String url;
+    @CheckForNull
+    private final String mergeStatus;
+    @CheckForNull
+    private final String targetBranch;
+    private final int sourceProjectId;
+    private final int targetProjectId;
+
+    /**
+     * The user id of the author of the merge request, or {@code 0}.
+     */
+    private final int authorId;
+    /**
+     * The author of the merge request, only known from the payload when the hook is about its opening.
+     */
+    @CheckForNull
+    private final String authorUsername;
+    @CheckForNull
+    private final String authorName;
+    @CheckForNull
+    private final String authorEmail;
+
+    /**
+     * @param eventType the {@code X-Gitlab-Event} header.
+     * @throws IllegalArgumentException if this is not a hook we handle, or the payload lacks what we need.
+     */
+    GitLabWebHookPayload(@CheckForNull String endpoint, @Nonnull String eventType, @Nonnull String body) {
+        this.endpoint = endpoint;
+        this.eventType = eventType;
+        this.body = body;
+        JSONObject json;
+        try {
+            json = JSONObject.fromObject(body);
+        } catch (JSONException e) {
+            throw new IllegalArgumentException("Malformed " + eventType + " payload", e);
+        }
+        JSONObject project = json.optJSONObject("project");
+        if (project == null) {
+            throw new IllegalArgumentException(eventType + " payload without project");
+        }
+        this.projectPath = required(project, "path_with_namespace");
+        this.projectName = string(project, "name");
+        this.projectUrl = string(project, "web_url");
+        this.projectDescription = string(project, "description");
+        this.projectDefaultBranch = string(project, "default_branch");
+        switch (eventType) {
+            case "Push Hook":
+            case "Tag Push Hook": {
+                this.kind = eventType.equals("Push Hook") ? Kind.PUSH : Kind.TAG_PUSH;
+                String prefix = kind == Kind.PUSH ? "refs/heads/" : "refs/tags/";
+                String fullRef = required(json, "ref");
+                if (!fullRef.startsWith(prefix)) {
+                    throw new IllegalArgumentException("Unexpected ref " + fullRef + " in " + eventType);
+                }
+                this.projectId = json.optInt("project_id", project.optInt("id"));
+                this.ref = fullRef.substring(prefix.length());
+                this.before = string(json, "before");
+                this.after = required(json, "after");
+                this.number = 0;
+                this.action = null;
+                this.state = null;
+                this.title = null;
+                this.description = null;
+                this.url = null;
+                this.mergeStatus = null;
+                this.targetBranch = null;
+                this.sourceProjectId = projectId;
+                this.targetProjectId = projectId;
+                this.authorId = 0;
+                this.authorUsername = null;
+                this.authorName = null;
+                this.authorEmail = null;
+                break;
+            }
+            case "Merge Request Hook": {
+                this.kind = Kind.MERGE_REQUEST;
+                JSONObject mr = json.optJSONObject("object_attributes");
+                if (mr == null) {
+                    throw new IllegalArgumentException(eventType + " payload without object_attributes");
+                }
+                JSONObject lastCommit = mr.optJSONObject("last_commit");
+                this.number = mr.getInt("iid");
+                this.targetProjectId = mr.getInt("target_project_id");
+                this.sourceProjectId = mr.getInt("source_project_id");
+                this.projectId = targetProjectId;
+                this.ref = string(mr, "source_branch");
+                this.before = null;
+                this.after = lastCommit == null ? null : string(lastCommit, "id");
+                this.action = string(mr, "action");
+                this.state = string(mr, "state");
+                this.title = string(mr, "title");
+                this.description = string(mr, "description");
+                this.url = string(mr, "url");
+                this.mergeStatus = string(mr, "merge_status");
+                this.targetBranch = required(mr, "target_branch");
+                this.authorId = mr.optInt("author_id");
+                // the user who triggered the hook, who only is the author when the merge request is opened; later
+                // hooks are triggered by whoever pushes to, updates, approves or merges it
+                JSONObject user = "open".equals(action) ? json.optJSONObject("user") : null;
+                this.authorUsername = user == null ? null : string(user, "username");
+                this.authorName = user == null ? null : string(user, "name");
+                this.authorEmail = user == null ? null : string(user, "email");
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("Unsupported event " + eventType);
+        }
+    }
+
+    @CheckForNull
+    private static String string(JSONObject json, String key) {
+        Object value = json.opt(key);
+        return value instanceof String ? (String) value : null;
+    }
+
+    @Nonnull
+    private static String required(JSONObject json, String key) {
+        String value = string(json, key);
+        if (value == null) {
+            throw new IllegalArgumentException("Payload without " + key);
+        }
+        return value;
+    }
+
+    /**
+     * The kind of change this payload reports, or {@code null} if there is nothing to act upon.
+     */
+    @CheckForNull
+    SCMEvent.Type getType() {
+        switch (kind) {
+            case PUSH:
+            case TAG_PUSH:
+                if (NO_COMMIT.equals(after)) {
+                    return SCMEvent.Type.REMOVED;
+                }
+                return NO_COMMIT.equals(before) ? SCMEvent.Type.CREATED : SCMEvent.Type.UPDATED;
+            case MERGE_REQUEST:
+                if ("closed".equals(state) || "merged".equals(state)) {
+                    return SCMEvent.Type.REMOVED;
+                }
+                if ("open".equals(action) || "reopen".equals(action)) {
+                    return SCMEvent.Type.CREATED;
+                }
+                return after == null ? null : SCMEvent.Type.UPDATED;
+            default:
+                return null;
+        }
+    }
+
+    @CheckForNull
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    @Nonnull
+    public String getEventType() {
+        return eventType;
+    }
+
+    @Nonnull
+    public String getBody() {
+        return body;
+    }
+
+    @Nonnull
+    public Kind getKind() {
+        return kind;
+    }
+
+    public int getProjectId() {
+        return projectId;
+    }
+
+    /**
+     * The full path of the project, e.g. {@code group/subgroup/project}.
+     */
+    @Nonnull
+    public String getProjectPath() {
+        return projectPath;
+    }
+
+    @CheckForNull
+    public String getProjectName() {
+        return projectName;
+    }
+
+    @CheckForNull
+    public String getProjectUrl() {
+        return projectUrl;
+    }
+
+    @CheckForNull
+    public String getProjectDescription() {
+        return projectDescription;
+    }
+
+    @CheckForNull
+    public String getProjectDefaultBranch() {
+        return projectDefaultBranch;
+    }
+
+    /**
+     * The pushed branch or tag, or the source branch of a merge request.
+     */
+    @CheckForNull
+    public String getRef() {
+        return ref;
+    }
+
+    /**
+     * The new head of the pushed ref, or the head commit of the merge request.
+     */
+    @CheckForNull
+    public String getAfter() {
+        return after;
+    }
+
+    public int getNumber() {
+        return number;
+    }
+
+    @CheckForNull
+    public String getTitle() {
+        return title;
+    }
+
+    @CheckForNull
+    public String getDescription() {
+        return description;
+    }
+
+    @CheckForNull
+    public String getUrl() {
+        return url;
+    }
+
+    @CheckForNull
+    public String getMergeStatus() {
+        return mergeStatus;
+    }
+
+    @CheckForNull
+    public String getTargetBranch() {
+        return targetBranch;
+    }
+
+    public int getSourceProjectId() {
+        return sourceProjectId;
+    }
+
+    public int getTargetProjectId() {
+        return targetProjectId;
+    }
+
+    public boolean isFork() {
+        return sourceProjectId != targetProjectId;
+    }
+
+    /**
+     * The user id of the author of the merge request, or {@code 0} if the payload does not say.
+     */
+    public int getAuthorId() {
+        return authorId;
+    }
+
+    /**
+     * The username of the author of the merge request, if this hook is about its opening.
+     */
+    @CheckForNull
+    public String getAuthorUsername() {
+        return authorUsername;
+    }
+
+    @CheckForNull
+    public String getAuthorName() {
+        return authorName;
+    }
+
+    @CheckForNull
+    public String getAuthorEmail() {
+        return authorEmail;
+    }
+}
@@ -0,0 +1,158 @@
+package org.jenkinsci.plugins.gitlab_branch_source;
+
+import org.gitlab.api.GitlabAPI;
+import org.gitlab.api.models.GitlabGroup;
+import org.gitlab.api.models.GitlabMergeRequest;
+import org.gitlab.api.models.GitlabProject;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The open merge requests of a whole group, listed once by {@link GitLabSCMNavigator} and handed out per project to
+ * the {@link GitLabSCMSource}s of the organization folder, so that they do not each need to list their own.
+ * <p>
+ * A slice is only used for
+ * {@code org.jenkinsci.plugins.gitlab_branch_source.GroupMergeRequests.ttlMinutes} after it was listed; merge
+ * requests opened after that are picked up by the next listing, or by the incremental listing of the source.
+ */
+final class GroupMergeRequests {
+    private static final long TTL = TimeUnit.MINUTES.toMillis(
+            Long.getLong(GroupMergeRequests.class.getName() + ".ttlMinutes", 5));
+
+    private static final GroupMergeRequests INSTANCE = new GroupMergeRequests();
+
+    /**
+     * By endpoint and project id.
+     */
+    private final ConcurrentMap<String, Slice> slices = new ConcurrentHashMap<>();
+
+    private GroupMergeRequests() {
+    }
+
+    static GroupMergeRequests get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Lists the open merge requests of the group, including those of its subgroups.
+     *
+     * @return the listing, to be handed to {@link #offer(String, int)} for each project of the group.
+     */
+    Listing prefetch(@Nonnull String endpoint, @Nonnull GitlabAPI api, @Nonnull GitlabGroup group)
+            throws IOException, InterruptedException {
+        evictStale();
+        long fetched = System.currentTimeMillis();
+        Map<Integer, List<GitlabMergeRequest>> byProject = new HashMap<>();
+        Date newest = null;
+        int count = 0;
+        try {
+            for (GitlabMergeRequest mr : new PagedIterable<>(api,
+                    GitlabGroup.URL + "/" + group.getId() + GitlabMergeRequest.URL + "?state=opened",
+                    GitlabMergeRequest[].class)) {
+                List<GitlabMergeRequest> mrs = byProject.get(mr.getProjectId());
+                if (mrs == null) {
+                    mrs = new ArrayList<>();
+                    byProject.put(mr.getProjectId(), mrs);
+                }
+                mrs.add(mr);
+                newest = ProjectActivitySnapshot.newer(newest, mr.getUpdatedAt());
+                count++;
+            }
+        } catch (PagedIterable.FetchException e) {
+            throw e.rethrow();
+        }
+        return new Listing(endpoint, fetched, byProject, newest, count);
+    }
+
+    /**
+     * Takes the prefetched merge requests of the project, if any are still fresh.
+     */
+    @CheckForNull
+    MergeRequestSnapshot lookup(@Nonnull String endpoint, @Nonnull GitlabProject repo) {
+        Slice slice = slices.get(key(endpoint, repo.getId()));
+        if (slice == null || System.currentTimeMillis() - slice.fetched >= TTL) {
+            return null;
+        }
+        return MergeRequestSnapshot.of(repo.getId(), slice.fetched, slice.open, slice.watermark);
+    }
+
+    private void evictStale() {
+        long now = System.currentTimeMillis();
+        for (Iterator<Slice> it = slices.values().iterator(); it.hasNext(); ) {
+            if (now - it.next().fetched >= TTL) {
+                it.remove();
+            }
+        }
+    }
+
+    private static String key(String endpoint, int projectId) {
+        return endpoint + '\t' + projectId;
+    }
+
+    /**
+     * The result of {@link #prefetch(String, GitlabAPI, GitlabGroup)}.
+     */
+    final class Listing {
+        private final String endpoint;
+        private final long fetched;
+        private final Map<Integer, List<GitlabMergeRequest>> byProject;
+        /**
+         * The newest update of any merge request of the group, which no later update of a merge request of any of
+         * its projects can precede.
+         */
+        @CheckForNull
+        private final Date watermark;
+        private final int count;
+
+        private Listing(String endpoint, long fetched, Map<Integer, List<GitlabMergeRequest>> byProject,
+                        @CheckForNull Date watermark, int count) {
+            this.endpoint = endpoint;
+            this.fetched = fetched;
+            this.byProject = byProject;
+            this.watermark = watermark;
+            this.count = count;
+        }
+
+        int getCount() {
+            return count;
+        }
+
+        int getProjectCount() {
+            return byProject.size();
+        }
+
+        /**
+         * Makes the slice of a project of the group available to its source.
+         */
+        void offer(int projectId) {
+            List<GitlabMergeRequest> open = byProject.get(projectId);
+            slices.put(key(endpoint, projectId), new Slice(fetched,
+                    open == null ? Collections.<GitlabMergeRequest>emptyList() : open, watermark));
+        }
+    }
+
+    private static final class Slice {
+        private final long fetched;
+        private final List<GitlabMergeRequest> open;
+        @CheckForNull
+        private final Date watermark;
+
+        Slice(long fetched, List<GitlabMergeRequest> open, @CheckForNull Date watermark) {
+            this.fetched = fetched;
+            this.open = open;
+            this.watermark = watermark;
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package org.jenkinsci.plugins.gitlab_branch_source;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import org.gitlab.api.GitlabAPI;
+import org.gitlab.api.models.GitlabGroup;
+import org.gitlab.api.models.GitlabProject;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The projects of a group, optionally including those of all its subgroups, handed out as they arrive.
+ * <p>
+ * With subgroups, the group's projects are listed with {@code include_subgroups=true}, unless the server is known
+ * to ignore that parameter. Whether it does is remembered per connection, once a listing shows it: a project of a
+ * subgroup in that listing means the parameter is supported, one that only walking the subgroups finds means that
+ * it is ignored. Until then, a listing without any project of a subgroup (which may just be filtered down to the
+ * projects of the group itself) is followed by a walk of the subgroups; so is every listing of a server that
+ * ignores the parameter. Sibling subgroups are walked concurrently by up to the given number of threads, and their
+ * projects are streamed to the consumer through a bounded queue as each page arrives.
+ * Projects reached more than once, e.g. because they are shared with several groups, are only handed out once.
+ * <p>
+ * Failures surface as {@link PagedIterable.FetchException} from the iterator.
+ */
+final class GroupProjects implements Iterable<GitlabProject>, Closeable {
+    /**
+     * Marks the end of the walk in the queue.
+     */
+    private static final GitlabProject END = new GitlabProject();
+
+    /**
+     * By connection name, whether the server lists the projects of subgroups along with those of the group.
+     */
+    private static final Map<String, Boolean> INCLUDE_SUBGROUPS = new ConcurrentHashMap<>();
+
+    @Nonnull
+    private final String endpoint;
+    private final GitlabAPI api;
+    private final GitlabGroup group;
+    private final String groupPath;
+    @CheckForNull
+    private final String query;
+    private final boolean subgroups;
+    private final int fanOut;
+    @CheckForNull
+    private PagedIterable<GitlabProject> pages;
+    @CheckForNull
+    private Walk walk;
+
+    /**
+     * @param endpoint  the name of the connection.
+     * @param groupPath the full path of the group, as used to look it up.
+     * @param query     additional query parameters for the project listings, if any.
+     * @param subgroups whether to include the projects of subgroups.
+     * @param fanOut    how many subgroups may be listed at the same time.
+     */
+    GroupProjects(@CheckForNull String endpoint, @Nonnull GitlabAPI api, @Nonnull GitlabGroup group,
+                  @Nonnull String groupPath, @CheckForNull String query, boolean subgroups, int fanOut) {
+        this.endpoint = String.valueOf(endpoint);
+        this.api = api;
+        this.group = group;
+        this.groupPath = groupPath;
+        this.query = query;
+        this.subgroups = subgroups;
+        this.fanOut = Math.max(1, fanOut);
+    }
+
+    /**
+     * The path of the project relative to the group, or {@code null} if the project lives outside the group,
+     * e.g. because it was only shared with the group.
+     */
+    @CheckForNull
+    static String relativePath(@Nonnull String groupPath, @Nonnull GitlabProject project) {
+        String path = project.getPathWithNamespace();
+        String prefix = groupPath + "/";
+        if (path == null || !path.regionMatches(true, 0, prefix, 0, prefix.length())) {
+            return null;
+        }
+        return path.substring(prefix.length());
+    }
+
+    @Override
+    public Iterator<GitlabProject> iterator() {
+        final Boolean supported = subgroups ? INCLUDE_SUBGROUPS.get(endpoint) : null;
+        pages = new PagedIterable<>(api, projectsUrl(group.getId(), subgroups && !Boolean.FALSE.equals(supported)),
+                GitlabProject[].class);
+        final Iterator<GitlabProject> listing = pages.iterator();
+        if (!subgroups || Boolean.TRUE.equals(supported)) {
+            return listing;
+        }
+        return new Iterator<GitlabProject>() {
+            private final Set<Integer> seen = new HashSet<>();
+            private Iterator<GitlabProject> current = listing;
+            private boolean nested;
+            @CheckForNull
+            private GitlabProject next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null) {
+                    if (!current.hasNext()) {
+                        if (nested || current != listing) {
+                            return false;
+                        }
+                        // no project from any subgroup: there may be none, or none that passed the filter
+                        walk = new Walk();
+                        current = walk;
+                        continue;
+                    }
+                    GitlabProject p = current.next();
+                    if (!seen.add(p.getId())) {
+                        continue;
+                    }
+                    if (supported == null && isNested(p)) {
+                        // the walk lists with the same filter, so it only finds what the listing left out if the
+                        // server ignored include_subgroups
+                        INCLUDE_SUBGROUPS.put(endpoint, current == listing);
+                        nested |= current == listing;
+                    }
+                    next = p;
+                }
+                return true;
+            }
+
+            @Override
+            public GitlabProject next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                GitlabProject p = next;
+                next = null;
+                return p;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private boolean isNested(GitlabProject project) {
+        String relative = relativePath(groupPath, project);
+        return relative != null && relative.indexOf('/') >= 0;
+    }
+
+    /**
+     * Forgets what is known about the servers, as the connections may now point elsewhere.
+     */
+    static void forget() {
+        INCLUDE_SUBGROUPS.clear();
+    }
+
+    /**
+     * Stops listing projects and walking subgroups.
+     */
+    @Override
+    public void close() {
+        if (pages != null) {
+            pages.close();
+        }
+        if (walk != null) {
+            walk.executor.shutdownNow();
+        }
+    }
+
+    private String projectsUrl(int groupId, boolean includeSubgroups) {
+        StringBuilder url = new StringBuilder(GitlabGroup.URL).append('/').append(groupId).append(GitlabProject.URL);
+        char sep = '?';
+        if (includeSubgroups) {
+            url.append(sep).append("include_subgroups=true");
+            sep = '&';
+        }
+        if (query != null) {
+            url.append(sep).append(query);
+        }
+        return url.toString();
+    }
+
+    /**
+     * Walks the subgroups of {@link #group} in the background.
+     */
+    private final class Walk implements Iterator<GitlabProject> {
+        private final ExecutorService executor = Executors.newFixedThreadPool(fanOut,
+                new NamingThreadFactory(new DaemonThreadFactory(), "GitLab subgroup walk of " + groupPath));
+        private final BlockingQueue<GitlabProject> queue =
+                new LinkedBlockingQueue<>(PagedIterable.PER_PAGE * fanOut);
+        private final Set<Integer> groups = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+        private final AtomicInteger outstanding = new AtomicInteger();
+        @CheckForNull
+        private volatile IOException failure;
+        @CheckForNull
+        private GitlabProject next;
+        private boolean done;
+
+        Walk() {
+            // the projects of the group itself have been listed already
+            visit(group.getId(), false);
+        }
+
+        private void visit(final int groupId, final boolean listProjects) {
+            if (!groups.add(groupId)) {
+                return;
+            }
+            outstanding.incrementAndGet();
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        // subgroups first, so that siblings are being listed while we page through the projects
+                        try (PagedIterable<GitlabGroup> subgroups = new PagedIterable<>(api,
+                                GitlabGroup.URL + "/" + groupId + "/subgroups", GitlabGroup[].class)) {
+                            for (GitlabGroup subgroup : subgroups) {
+                                visit(subgroup.getId(), true);
+                            }
+                        } catch (PagedIterable.FetchException e) {
+                            if (!(e.getCause() instanceof FileNotFoundException)) {
+                                throw e;
+                            }
+                            // no subgroup support on this server
+                        }
+                        if (listProjects) {
+                            try (PagedIterable<GitlabProject> projects = new PagedIterable<>(api,
+                                    projectsUrl(groupId, false), GitlabProject[].class)) {
+                                for (GitlabProject p : projects) {
+                                    queue.put(p);
+                                }
+                            }
+                        }
+                    } catch (PagedIterable.FetchException e) {
+                        if (e.isInterrupted()) {
+                            return; // the walk was closed
+                        }
+                        failure = e.getCause();
+                    } catch (InterruptedException e) {
+                        return; // the walk was closed
+                    } catch (RuntimeException e) {
+                        failure = new IOException(e);
+                    }
+                    boolean last = outstanding.decrementAndGet() == 0;
+                    if (last || failure != null) {
+                        try {
+                            queue.put(END);
+                        } catch (InterruptedException e) {
+                            // the walk was closed
+                        }
+                    }
+                }
+            });
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next != null) {
+                return true;
+            }
+            if (done) {
+                return false;
+            }
+            GitlabProject p;
+            try {
+                p = failure == null ? queue.take() : END;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw PagedIterable.FetchException.interrupted("Interrupted while walking the subgroups of "
+                        + groupPath);
+            }
+            if (p == END) {
+                done = true;
+                executor.shutdownNow();
+                IOException f = failure;
+                if (f != null) {
+                    throw new PagedIterable.FetchException(f);
+                }
+                return false;
+            }
+            next = p;
+            return true;
+        }
+
+        @Override
+        public GitlabProject next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            GitlabProject p = next;
+            next = null;
+            return p;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
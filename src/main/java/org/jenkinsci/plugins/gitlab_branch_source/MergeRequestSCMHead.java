@@ -35,15 +35,24 @@ public final class MergeRequestSCMHead extends SCMHead implements ChangeRequestS
      *      Repository that the MR is in.
      */
     MergeRequestSCMHead(GitlabProject repo, GitlabMergeRequest pr, String name, boolean merge) {
+        this(name, pr.getIid(), pr.getTargetBranch(), pr.getSourceProjectId(), repo.getNamespace().getPath(),
+                repo.getPath(), pr.getSha(), merge);
+    }
+
+    /**
+     * For when all we have are the details of a webhook payload.
+     */
+    MergeRequestSCMHead(String name, int number, String targetBranch, int sourceProject, String sourceOwner,
+                        String sourceRepo, String sourceBranch, boolean merge) {
         super(name);
         // the merge flag is encoded into the name, so safe to store here
         this.merge = merge;
-        this.number = pr.getIid();
-        this.target = new BranchSCMHead(pr.getTargetBranch());
-        this.sourceProject = pr.getSourceProjectId();
-        this.sourceOwner = repo.getNamespace().getPath();
-        this.sourceRepo = repo.getPath();
-        this.sourceBranch = pr.getSha();
+        this.number = number;
+        this.target = new BranchSCMHead(targetBranch);
+        this.sourceProject = sourceProject;
+        this.sourceOwner = sourceOwner;
+        this.sourceRepo = sourceRepo;
+        this.sourceBranch = sourceBranch;
     }
 
     /**
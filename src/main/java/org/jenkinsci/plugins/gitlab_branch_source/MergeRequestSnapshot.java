@@ -0,0 +1,142 @@
+package org.jenkinsci.plugins.gitlab_branch_source;
+
+import org.gitlab.api.GitlabAPI;
+import org.gitlab.api.models.GitlabMergeRequest;
+import org.gitlab.api.models.GitlabProject;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The open merge requests of a project as of the last scan, so that the next scan only needs to ask GitLab for the
+ * merge requests updated since then.
+ */
+final class MergeRequestSnapshot {
+    /**
+     * How often the snapshot is thrown away in favour of a full listing, to catch anything the incremental
+     * listings could have missed.
+     */
+    private static final long FULL_SCAN_INTERVAL = TimeUnit.MINUTES.toMillis(
+            Long.getLong(MergeRequestSnapshot.class.getName() + ".fullScanMinutes", 60));
+
+    /**
+     * How far back from the newest update we have seen the next incremental listing starts, so that merge requests
+     * updated within the same second as the watermark are not missed.
+     */
+    private static final long OVERLAP = TimeUnit.SECONDS.toMillis(1);
+
+    private final int projectId;
+    private final long created;
+    /**
+     * By iid.
+     */
+    private final Map<Integer, GitlabMergeRequest> open;
+    /**
+     * The newest {@link GitlabMergeRequest#getUpdatedAt()} reported by the server, so that we do not compare the
+     * server clock with ours, or {@code null} if there was no merge request at all, in which case the next scan
+     * lists them all again, which costs as much.
+     */
+    @CheckForNull
+    private final Date watermark;
+
+    /**
+     * @param created when the listing started.
+     */
+    private MergeRequestSnapshot(int projectId, long created, Map<Integer, GitlabMergeRequest> open,
+                                 @CheckForNull Date watermark) {
+        this.projectId = projectId;
+        this.created = created;
+        this.open = open;
+        this.watermark = watermark;
+    }
+
+    /**
+     * Lists every open merge request.
+     */
+    static MergeRequestSnapshot full(@Nonnull GitlabAPI api, @Nonnull GitlabProject repo) throws IOException {
+        long started = System.currentTimeMillis();
+        Map<Integer, GitlabMergeRequest> open = new TreeMap<>();
+        for (GitlabMergeRequest mr : new PagedIterable<>(api, GitLabSCMSource.openMergeRequestsUrl(repo),
+                GitlabMergeRequest[].class)) {
+            open.put(mr.getIid(), mr);
+        }
+        return new MergeRequestSnapshot(repo.getId(), started, open, newest(null, open.values()));
+    }
+
+    /**
+     * A snapshot of open merge requests listed elsewhere.
+     *
+     * @param created when the listing started.
+     * @param watermark no later update of a merge request of the project precedes this.
+     */
+    static MergeRequestSnapshot of(int projectId, long created, @Nonnull Collection<GitlabMergeRequest> mrs,
+                                   @CheckForNull Date watermark) {
+        Map<Integer, GitlabMergeRequest> open = new TreeMap<>();
+        for (GitlabMergeRequest mr : mrs) {
+            open.put(mr.getIid(), mr);
+        }
+        return new MergeRequestSnapshot(projectId, created, open, watermark);
+    }
+
+    /**
+     * Whether {@link #update(GitlabAPI, GitlabProject)} can be used for this project or a full listing is due.
+     */
+    boolean isUsableFor(@Nonnull GitlabProject repo) {
+        return projectId == repo.getId() && watermark != null
+                && System.currentTimeMillis() - created < FULL_SCAN_INTERVAL;
+    }
+
+    /**
+     * Lists the merge requests updated since this snapshot was taken, in any state, and reconciles them with it.
+     * Only to be called if {@link #isUsableFor(GitlabProject)}.
+     */
+    MergeRequestSnapshot update(@Nonnull GitlabAPI api, @Nonnull GitlabProject repo) throws IOException {
+        if (watermark == null) {
+            throw new IllegalStateException("No merge request to start an incremental listing from");
+        }
+        SimpleDateFormat iso = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        iso.setTimeZone(TimeZone.getTimeZone("UTC"));
+        String since = iso.format(new Date(watermark.getTime() - OVERLAP));
+        String tailUrl = GitlabProject.URL + "/" + repo.getId() + GitlabMergeRequest.URL
+                + "?state=all&updated_after=" + URLEncoder.encode(since, "UTF-8");
+        List<GitlabMergeRequest> changed = api.retrieve().getAll(tailUrl, GitlabMergeRequest[].class);
+        Map<Integer, GitlabMergeRequest> open = new TreeMap<>(this.open);
+        for (GitlabMergeRequest mr : changed) {
+            if ("closed".equals(mr.getState()) || "merged".equals(mr.getState())) {
+                open.remove(mr.getIid());
+            } else {
+                // opened, reopened, or locked while it is being merged
+                open.put(mr.getIid(), mr);
+            }
+        }
+        return new MergeRequestSnapshot(projectId, created, open, newest(watermark, changed));
+    }
+
+    Collection<GitlabMergeRequest> getOpen() {
+        return Collections.unmodifiableCollection(new ArrayList<>(open.values()));
+    }
+
+    @CheckForNull
+    private static Date newest(@CheckForNull Date watermark, Collection<GitlabMergeRequest> mrs) {
+        Date newest = watermark;
+        for (GitlabMergeRequest mr : mrs) {
+            Date updated = mr.getUpdatedAt();
+            if (updated != null && (newest == null || updated.after(newest))) {
+                newest = updated;
+            }
+        }
+        return newest;
+    }
+}
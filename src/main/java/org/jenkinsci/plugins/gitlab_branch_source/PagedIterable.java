@@ -0,0 +1,217 @@
+package org.jenkinsci.plugins.gitlab_branch_source;
+
+import hudson.model.Computer;
+import org.gitlab.api.GitlabAPI;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * A GitLab listing that fetches each page only when the consumer gets to it.
+ * <p>
+ * While the consumer works through a page, the next one is fetched in the background. A consumer that stops
+ * early (because the observer is done, or the scan was interrupted) therefore pays for at most one extra page
+ * rather than the whole listing, and only one or two pages are held in memory at any time. Such a consumer should
+ * {@link #close()} the listing, so that the page being fetched ahead is cancelled rather than left to complete.
+ * <p>
+ * Failures to fetch a page surface as {@link FetchException} from the iterator, which callers are expected to
+ * turn back into the {@link IOException} it carries, or the {@link InterruptedException} it stands for, using
+ * {@link FetchException#rethrow()}.
+ *
+ * @param <T> the type of the listed items.
+ */
+final class PagedIterable<T> implements Iterable<T>, Closeable {
+    static final int PER_PAGE = 100;
+
+    private final GitlabAPI api;
+    private final String tailUrl;
+    private final Class<T[]> type;
+    /**
+     * The iterators handed out, which may still be fetching ahead.
+     */
+    private final Set<PageIterator> iterators =
+            Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<PageIterator, Boolean>()));
+
+    /**
+     * @param tailUrl the listing URL relative to the API root, possibly with query parameters.
+     */
+    PagedIterable(@Nonnull GitlabAPI api, @Nonnull String tailUrl, @Nonnull Class<T[]> type) {
+        this.api = api;
+        this.tailUrl = tailUrl;
+        this.type = type;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        PageIterator iterator = new PageIterator();
+        iterators.add(iterator);
+        return iterator;
+    }
+
+    /**
+     * Cancels the pages being fetched ahead for iterators that were not run to the end.
+     */
+    @Override
+    public void close() {
+        PageIterator[] open;
+        synchronized (iterators) {
+            open = iterators.toArray(new PageIterator[0]);
+            iterators.clear();
+        }
+        for (PageIterator iterator : open) {
+            iterator.cancel();
+        }
+    }
+
+    private T[] fetch(int page) throws IOException {
+        String url = tailUrl + (tailUrl.indexOf('?') >= 0 ? '&' : '?') + "page=" + page + "&per_page=" + PER_PAGE;
+        return api.retrieve().to(url, type);
+    }
+
+    private final class PageIterator implements Iterator<T> {
+        private Iterator<T> current = Collections.emptyIterator();
+        private int page = 0;
+        private boolean last;
+        @CheckForNull
+        private volatile Future<T[]> next;
+
+        @Override
+        public boolean hasNext() {
+            while (!current.hasNext()) {
+                if (last) {
+                    iterators.remove(this);
+                    return false;
+                }
+                T[] items = take();
+                page++;
+                last = items == null || items.length < PER_PAGE;
+                current = items == null ? Collections.<T>emptyIterator() : Arrays.asList(items).iterator();
+                if (!last) {
+                    final int following = page + 1;
+                    next = Computer.threadPoolForRemoting.submit(new Callable<T[]>() {
+                        @Override
+                        public T[] call() throws Exception {
+                            return fetch(following);
+                        }
+                    });
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        void cancel() {
+            Future<T[]> f = next;
+            next = null;
+            if (f != null) {
+                f.cancel(true);
+            }
+        }
+
+        private T[] take() {
+            Future<T[]> f = next;
+            next = null;
+            try {
+                if (f == null) {
+                    return fetch(page + 1);
+                }
+                try {
+                    return f.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    }
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    throw new IOException(cause);
+                } catch (InterruptedException e) {
+                    f.cancel(true);
+                    Thread.currentThread().interrupt();
+                    throw FetchException.interrupted("Interrupted while fetching page " + (page + 1) + " of " + tailUrl);
+                }
+            } catch (IOException e) {
+                throw new FetchException(e);
+            }
+        }
+    }
+
+    /**
+     * Carries an {@link IOException} out of {@link Iterator#hasNext()}.
+     */
+    static final class FetchException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Whether the consumer was interrupted, as opposed to any other {@link InterruptedIOException} such as a
+         * timeout.
+         */
+        private final boolean interrupted;
+
+        FetchException(IOException cause) {
+            this(cause, false);
+        }
+
+        private FetchException(IOException cause, boolean interrupted) {
+            super(cause);
+            this.interrupted = interrupted;
+        }
+
+        /**
+         * The consumer was interrupted while waiting for a page.
+         */
+        static FetchException interrupted(String message) {
+            return new FetchException(new InterruptedIOException(message), true);
+        }
+
+        boolean isInterrupted() {
+            return interrupted;
+        }
+
+        @Override
+        public synchronized IOException getCause() {
+            return (IOException) super.getCause();
+        }
+
+        /**
+         * Gives the failure back to a caller that can throw both, as in {@code throw e.rethrow();}.
+         *
+         * @return the {@link IOException} that failed the listing.
+         * @throws InterruptedException if the consumer was interrupted instead.
+         */
+        IOException rethrow() throws InterruptedException {
+            if (interrupted) {
+                Thread.interrupted();
+                InterruptedException e = new InterruptedException(getCause().getMessage());
+                e.initCause(getCause());
+                throw e;
+            }
+            return getCause();
+        }
+    }
+}
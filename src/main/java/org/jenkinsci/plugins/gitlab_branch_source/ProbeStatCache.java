@@ -0,0 +1,159 @@
+package org.jenkinsci.plugins.gitlab_branch_source;
+
+import hudson.util.AtomicFileWriter;
+import jenkins.model.Jenkins;
+import jenkins.scm.api.SCMFile;
+import jenkins.scm.api.SCMProbeStat;
+import jenkins.util.Timer;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Remembers what {@link GitLabSCMProbe#stat(String)} found at a given commit.
+ * <p>
+ * Whether a path exists at a commit can never change, so the answers (including the negative ones, as long as they
+ * come from GitLab having looked at the commit rather than from a failure) are kept across scans and restarts in {@code $JENKINS_HOME/gitlab-branch-source/probe-stats.txt}, with the least recently used
+ * entries evicted once {@code org.jenkinsci.plugins.gitlab_branch_source.ProbeStatCache.maxEntries} is reached.
+ * Only probes of a known commit consult this cache; symbolic refs such as {@code refs/merge-requests/1/merge} do not.
+ */
+final class ProbeStatCache {
+    private static final Logger LOGGER = Logger.getLogger(ProbeStatCache.class.getName());
+
+    private static final int MAX_ENTRIES = Integer.getInteger(ProbeStatCache.class.getName() + ".maxEntries", 100000);
+
+    /**
+     * How long we wait after a change before writing the cache out, so that a scan saves it once rather than
+     * for every head.
+     */
+    private static final long SAVE_DELAY_SECONDS = 30;
+
+    private static final ProbeStatCache INSTANCE = new ProbeStatCache();
+
+    private final LinkedHashMap<String, SCMProbeStat> entries = new LinkedHashMap<String, SCMProbeStat>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SCMProbeStat> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    private boolean loaded;
+    private boolean saveScheduled;
+
+    private ProbeStatCache() {
+    }
+
+    static ProbeStatCache get() {
+        return INSTANCE;
+    }
+
+    @CheckForNull
+    public synchronized SCMProbeStat lookup(@Nonnull String endpoint, int projectId, @Nonnull String commit,
+                                            @Nonnull String path) {
+        load();
+        return entries.get(key(endpoint, projectId, commit, path));
+    }
+
+    public synchronized void store(@Nonnull String endpoint, int projectId, @Nonnull String commit,
+                                   @Nonnull String path, @Nonnull SCMProbeStat stat) {
+        if (path.indexOf('\t') >= 0 || path.indexOf('\n') >= 0) {
+            return; // cannot be represented in the file, and unlikely enough not to bother
+        }
+        load();
+        entries.put(key(endpoint, projectId, commit, path), stat);
+        scheduleSave();
+    }
+
+    private static String key(String endpoint, int projectId, String commit, String path) {
+        return endpoint + '\t' + projectId + '\t' + commit + '\t' + path;
+    }
+
+    private static File getFile() {
+        return new File(new File(Jenkins.getActiveInstance().getRootDir(), "gitlab-branch-source"), "probe-stats.txt");
+    }
+
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        File file = getFile();
+        if (!file.isFile()) {
+            return;
+        }
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                // endpoint, project id, commit, path, type and optionally the alternative path
+                String[] fields = line.split("\t", -1);
+                if (fields.length != 6) {
+                    continue;
+                }
+                SCMProbeStat stat = fields[5].isEmpty()
+                        ? SCMProbeStat.fromType(SCMFile.Type.valueOf(fields[4]))
+                        : SCMProbeStat.fromAlternativePath(fields[5]);
+                entries.put(fields[0] + '\t' + fields[1] + '\t' + fields[2] + '\t' + fields[3], stat);
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            LOGGER.log(Level.WARNING, "Could not load " + file + ", starting with an empty probe cache", e);
+            entries.clear();
+        }
+    }
+
+    private void scheduleSave() {
+        if (saveScheduled) {
+            return;
+        }
+        saveScheduled = true;
+        Timer.get().schedule(new Runnable() {
+            @Override
+            public void run() {
+                save();
+            }
+        }, SAVE_DELAY_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private void save() {
+        List<String> lines;
+        synchronized (this) {
+            saveScheduled = false;
+            lines = new ArrayList<>(entries.size());
+            for (Map.Entry<String, SCMProbeStat> entry : entries.entrySet()) {
+                SCMProbeStat stat = entry.getValue();
+                String alternative = stat.getAlternativePath();
+                lines.add(entry.getKey() + '\t' + stat.getType().name() + '\t' + (alternative == null ? "" : alternative));
+            }
+        }
+        File file = getFile();
+        try {
+            File dir = file.getParentFile();
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Could not create " + dir);
+            }
+            AtomicFileWriter w = new AtomicFileWriter(file, "UTF-8");
+            try {
+                for (String line : lines) {
+                    w.write(line);
+                    w.write('\n');
+                }
+                w.commit();
+            } finally {
+                w.abort();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not save " + file, e);
+        }
+    }
+}
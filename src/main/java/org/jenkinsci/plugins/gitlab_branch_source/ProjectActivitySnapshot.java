@@ -0,0 +1,139 @@
+package org.jenkinsci.plugins.gitlab_branch_source;
+
+import org.gitlab.api.models.GitlabGroup;
+import org.gitlab.api.models.GitlabProject;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The projects of a group as of the last organization scan, so that the next scan only needs the full details of the
+ * projects with activity since then.
+ * <p>
+ * Deleting, transferring, archiving or renaming a project leaves no activity behind, so an incremental scan still
+ * lists the ids and paths of all the projects to reconcile this snapshot with. A full listing happens at least every
+ * {@code org.jenkinsci.plugins.gitlab_branch_source.ProjectActivitySnapshot.fullScanMinutes}, after a restart, when
+ * the navigator is reconfigured and when a user asks for a scan.
+ */
+final class ProjectActivitySnapshot {
+    /**
+     * How often the snapshot is thrown away in favour of a full listing; {@code 0} makes every scan a full one.
+     */
+    private static final long FULL_SCAN_INTERVAL = TimeUnit.MINUTES.toMillis(
+            Long.getLong(ProjectActivitySnapshot.class.getName() + ".fullScanMinutes", 360));
+
+    /**
+     * How far back from the newest activity we have seen the next incremental listing starts, so that projects
+     * active within the same second as the watermark are not missed.
+     */
+    private static final long OVERLAP = TimeUnit.SECONDS.toMillis(1);
+
+    private final int groupId;
+    private final long created;
+    /**
+     * Project item names by project id.
+     */
+    private final Map<Integer, String> names;
+    /**
+     * The newest {@link GitlabProject#getLastActivityAt()} reported by the server.
+     */
+    @CheckForNull
+    private final Date watermark;
+
+    private ProjectActivitySnapshot(int groupId, long created, Map<Integer, String> names, @CheckForNull Date watermark) {
+        this.groupId = groupId;
+        this.created = created;
+        this.names = names;
+        this.watermark = watermark;
+    }
+
+    /**
+     * The snapshot of a full listing.
+     *
+     * @param listed the item names of every project of the group, by id.
+     */
+    static ProjectActivitySnapshot full(@Nonnull GitlabGroup group, @Nonnull Map<Integer, String> listed,
+                                        @CheckForNull Date newest) {
+        return new ProjectActivitySnapshot(group.getId(), System.currentTimeMillis(),
+                new HashMap<>(listed), newest);
+    }
+
+    /**
+     * Whether {@link #activityQuery()} can be used for this group or a full listing is due.
+     */
+    boolean isUsableFor(@Nonnull GitlabGroup group) {
+        return groupId == group.getId() && watermark != null
+                && System.currentTimeMillis() - created < FULL_SCAN_INTERVAL;
+    }
+
+    /**
+     * The query parameters that limit a project listing to the projects with activity since this snapshot was
+     * taken.
+     */
+    String activityQuery() {
+        SimpleDateFormat iso = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        iso.setTimeZone(TimeZone.getTimeZone("UTC"));
+        try {
+            return "last_activity_after="
+                    + URLEncoder.encode(iso.format(new Date(watermark.getTime() - OVERLAP)), "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * How many projects of this snapshot are gone from the given ones, by project id.
+     */
+    int gone(@Nonnull Set<Integer> present) {
+        int gone = 0;
+        for (Integer id : names.keySet()) {
+            if (!present.contains(id)) {
+                gone++;
+            }
+        }
+        return gone;
+    }
+
+    /**
+     * How many projects of this snapshot are known by another item name among the given ones, by project id.
+     */
+    int renamed(@Nonnull Map<Integer, String> present) {
+        int renamed = 0;
+        for (Map.Entry<Integer, String> entry : present.entrySet()) {
+            String name = names.get(entry.getKey());
+            if (name != null && !name.equals(entry.getValue())) {
+                renamed++;
+            }
+        }
+        return renamed;
+    }
+
+    /**
+     * The snapshot of an incremental scan.
+     *
+     * @param listed the item names of every project of the group, by id, as reconciled by the scan.
+     */
+    ProjectActivitySnapshot update(@Nonnull Map<Integer, String> listed, @CheckForNull Date newest) {
+        return new ProjectActivitySnapshot(groupId, created, new HashMap<>(listed), newer(watermark, newest));
+    }
+
+    /**
+     * The newer of the two dates, ignoring {@code null}s.
+     */
+    @CheckForNull
+    static Date newer(@CheckForNull Date a, @CheckForNull Date b) {
+        if (a == null) {
+            return b;
+        }
+        return b != null && b.after(a) ? b : a;
+    }
+}
@@ -0,0 +1,138 @@
+package org.jenkinsci.plugins.gitlab_branch_source;
+
+import org.gitlab.api.GitlabAPI;
+import org.gitlab.api.models.GitlabProject;
+
+import javax.annotation.Nonnull;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The content of a blob, read straight off the HTTP response rather than loaded into memory first.
+ * <p>
+ * Blobs larger than {@code org.jenkinsci.plugins.gitlab_branch_source.RawBlobStream.maxBytes} are refused, and
+ * reading gives up as soon as the reading thread is interrupted or the stream is closed. A stream read to the end
+ * leaves its connection to be reused; one abandoned early drops it, rather than draining the rest of the blob.
+ */
+final class RawBlobStream extends FilterInputStream {
+    static final long MAX_BYTES = Long.getLong(RawBlobStream.class.getName() + ".maxBytes", 32L * 1024 * 1024);
+
+    private static final int READ_TIMEOUT = (int) TimeUnit.SECONDS.toMillis(60);
+
+    private final HttpURLConnection connection;
+    private final String name;
+    private final long maxBytes;
+    private long read;
+    private boolean eof;
+
+    RawBlobStream(HttpURLConnection connection, InputStream in, String name, long maxBytes) {
+        super(in);
+        this.connection = connection;
+        this.name = name;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Starts downloading a blob.
+     *
+     * @param name what to call the blob in error messages, typically its path.
+     * @throws FileNotFoundException if there is no such blob.
+     */
+    static InputStream open(@Nonnull GitlabAPI api, @Nonnull GitlabProject repo, @Nonnull String sha,
+                            @Nonnull String name) throws IOException, InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        HttpURLConnection connection = Connector.request(api,
+                GitlabProject.URL + "/" + repo.getId() + "/repository/raw_blobs/" + sha, "GET", READ_TIMEOUT);
+        boolean ok = false;
+        try {
+            int code = connection.getResponseCode();
+            if (code == HttpURLConnection.HTTP_NOT_FOUND) {
+                throw new FileNotFoundException(name);
+            }
+            if (code != HttpURLConnection.HTTP_OK) {
+                throw new IOException("HTTP " + code + " while reading " + name);
+            }
+            long length = connection.getContentLengthLong();
+            if (length > MAX_BYTES) {
+                throw new IOException(name + " is " + length + " bytes, more than the limit of " + MAX_BYTES);
+            }
+            RawBlobStream stream = new RawBlobStream(connection, connection.getInputStream(), name, MAX_BYTES);
+            ok = true;
+            return stream;
+        } finally {
+            if (!ok) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkInterrupt();
+        int b = super.read();
+        if (b >= 0) {
+            count(1);
+        } else {
+            eof = true;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(@Nonnull byte[] b, int off, int len) throws IOException {
+        checkInterrupt();
+        int n = super.read(b, off, len);
+        if (n > 0) {
+            count(n);
+        } else if (n < 0) {
+            eof = true;
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        checkInterrupt();
+        long skipped = super.skip(n);
+        count(skipped);
+        return skipped;
+    }
+
+    /**
+     * Leaves the interrupt flag set, for the caller to notice as well.
+     */
+    private void checkInterrupt() throws IOException {
+        if (Thread.currentThread().isInterrupted()) {
+            close();
+            throw new InterruptedIOException("Interrupted while reading " + name);
+        }
+    }
+
+    private void count(long n) throws IOException {
+        read += n;
+        if (read > maxBytes) {
+            // the server did not tell the length upfront
+            close();
+            throw new IOException(name + " is more than the limit of " + maxBytes + " bytes");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            if (!eof) {
+                // closing alone would drain the rest of the response to keep the connection alive
+                connection.disconnect();
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package org.jenkinsci.plugins.gitlab_branch_source;
+
+import javax.annotation.Nonnull;
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Named counters collected during a scan and printed at the end of the scan log.
+ */
+final class ScanMetrics {
+    private final ConcurrentMap<String, AtomicLong> counters = new ConcurrentSkipListMap<>();
+
+    public void increment(@Nonnull String name) {
+        add(name, 1L);
+    }
+
+    public void add(@Nonnull String name, long delta) {
+        AtomicLong counter = counters.get(name);
+        if (counter == null) {
+            AtomicLong fresh = new AtomicLong();
+            counter = counters.putIfAbsent(name, fresh);
+            if (counter == null) {
+                counter = fresh;
+            }
+        }
+        counter.addAndGet(delta);
+    }
+
+    public long get(@Nonnull String name) {
+        AtomicLong counter = counters.get(name);
+        return counter == null ? 0L : counter.get();
+    }
+
+    public void print(@Nonnull PrintStream logger) {
+        if (counters.isEmpty()) {
+            return;
+        }
+        logger.format("%n  Scan metrics:%n");
+        for (Map.Entry<String, AtomicLong> entry : counters.entrySet()) {
+            logger.format("    %s: %d%n", entry.getKey(), entry.getValue().get());
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package org.jenkinsci.plugins.gitlab_branch_source;
+
+import org.gitlab.api.GitlabAPI;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Resolves the head commit of merge request target branches, remembering each (project, branch) for the rest of
+ * the scan: almost all merge requests of a project target the same handful of branches.
+ */
+final class TargetRefResolver {
+    private final GitlabAPI api;
+    private final Map<String, String> hashes = new HashMap<>();
+    private int hits;
+    private int misses;
+
+    TargetRefResolver(@Nonnull GitlabAPI api) {
+        this.api = api;
+    }
+
+    /**
+     * Records a branch head that is already known, e.g. from a branch listing of the same scan.
+     */
+    public synchronized void seed(int projectId, @Nonnull String branch, @Nonnull String hash) {
+        hashes.put(key(projectId, branch), hash);
+    }
+
+    @Nonnull
+    public synchronized String resolve(int projectId, @Nonnull String branch) throws IOException {
+        String key = key(projectId, branch);
+        String hash = hashes.get(key);
+        if (hash != null) {
+            hits++;
+            return hash;
+        }
+        misses++;
+        hash = api.getBranch(projectId, branch).getCommit().getId();
+        hashes.put(key, hash);
+        return hash;
+    }
+
+    public synchronized int getHits() {
+        return hits;
+    }
+
+    public synchronized int getMisses() {
+        return misses;
+    }
+
+    private static String key(int projectId, String branch) {
+        return projectId + ":" + branch;
+    }
+}
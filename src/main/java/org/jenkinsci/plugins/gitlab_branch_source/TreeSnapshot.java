@@ -0,0 +1,333 @@
+package org.jenkinsci.plugins.gitlab_branch_source;
+
+import jenkins.scm.api.SCMFile;
+import jenkins.scm.api.SCMProbeStat;
+import org.gitlab.api.GitlabAPI;
+import org.gitlab.api.models.GitlabProject;
+import org.gitlab.api.models.GitlabRepositoryTree;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * The whole tree of a commit, listed recursively in one go, so that {@link GitLabSCMProbe#stat(String)} and
+ * {@link GitLabSCMFile} answer from memory rather than listing a directory per question.
+ * <p>
+ * Opt in with {@code org.jenkinsci.plugins.gitlab_branch_source.TreeSnapshot.enabled}. Only commits (never symbolic
+ * refs) are snapshotted, as their tree cannot change. The {@code maxSnapshots} most recently used snapshots are
+ * kept; trees of more than {@code maxEntries} entries are not snapshotted, and neither are those of GitLab servers
+ * that do not list trees recursively. In both cases the directories are listed one by one as before.
+ */
+final class TreeSnapshot {
+    static final boolean ENABLED = Boolean.getBoolean(TreeSnapshot.class.getName() + ".enabled");
+
+    private static final int MAX_ENTRIES = Integer.getInteger(TreeSnapshot.class.getName() + ".maxEntries", 20000);
+    private static final int MAX_SNAPSHOTS = Integer.getInteger(TreeSnapshot.class.getName() + ".maxSnapshots", 64);
+
+    private static final Pattern COMMIT = Pattern.compile("[0-9a-f]{40}");
+
+    /**
+     * Stands for a tree that cannot be snapshotted.
+     */
+    private static final TreeSnapshot UNAVAILABLE = new TreeSnapshot(new Node("", Kind.TREE, null));
+
+    /**
+     * By endpoint, project id and commit, least recently used first.
+     */
+    private static final Map<String, TreeSnapshot> SNAPSHOTS =
+            new LinkedHashMap<String, TreeSnapshot>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, TreeSnapshot> eldest) {
+                    return size() > MAX_SNAPSHOTS;
+                }
+            };
+
+    /**
+     * By endpoint and project id: projects with trees too large to snapshot; by endpoint alone: servers that
+     * cannot list trees recursively.
+     */
+    private static final Map<String, Boolean> UNSUPPORTED = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > 1024;
+        }
+    };
+
+    enum Kind {
+        BLOB, TREE, LINK, OTHER
+    }
+
+    private final Node root;
+
+    private TreeSnapshot(Node root) {
+        this.root = root;
+    }
+
+    /**
+     * The snapshot of the tree of a commit, listing it if need be.
+     *
+     * @param ref the commit, or a ref, in which case there is no snapshot.
+     * @return {@code null} if the tree is not to be snapshotted.
+     */
+    @CheckForNull
+    static TreeSnapshot of(@CheckForNull String endpoint, @Nonnull GitlabAPI api, @Nonnull GitlabProject repo,
+                           @Nonnull String ref) throws IOException {
+        if (!ENABLED || !COMMIT.matcher(ref).matches()) {
+            return null;
+        }
+        String server = String.valueOf(endpoint);
+        String project = server + '\t' + repo.getId();
+        String key = project + '\t' + ref;
+        synchronized (SNAPSHOTS) {
+            if (UNSUPPORTED.containsKey(server) || UNSUPPORTED.containsKey(project)) {
+                return null;
+            }
+            TreeSnapshot snapshot = SNAPSHOTS.get(key);
+            if (snapshot != null) {
+                return snapshot == UNAVAILABLE ? null : snapshot;
+            }
+        }
+        TreeSnapshot snapshot;
+        try {
+            snapshot = list(api, repo, ref);
+        } catch (FileNotFoundException e) {
+            snapshot = UNAVAILABLE;
+        }
+        synchronized (SNAPSHOTS) {
+            if (snapshot == null) {
+                UNSUPPORTED.put(project, true);
+            } else if (!snapshot.isRecursive()) {
+                UNSUPPORTED.put(server, true);
+                return null;
+            } else {
+                SNAPSHOTS.put(key, snapshot);
+            }
+        }
+        return snapshot == UNAVAILABLE ? null : snapshot;
+    }
+
+    /**
+     * @return {@code null} if the tree has too many entries.
+     */
+    @CheckForNull
+    private static TreeSnapshot list(GitlabAPI api, GitlabProject repo, String commit) throws IOException {
+        try (PagedIterable<GitlabRepositoryTree> entries = new PagedIterable<>(api, GitlabProject.URL + "/"
+                + repo.getId() + "/repository/tree?recursive=true&ref=" + commit, GitlabRepositoryTree[].class)) {
+            return build(entries, MAX_ENTRIES);
+        } catch (PagedIterable.FetchException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * @return {@code null} if there are more than {@code maxEntries} entries.
+     */
+    @CheckForNull
+    static TreeSnapshot build(@Nonnull Iterable<GitlabRepositoryTree> entries, int maxEntries) {
+        Node root = new Node("", Kind.TREE, null);
+        Map<String, Node> trees = new HashMap<>();
+        Map<Node, List<Node>> children = new HashMap<>();
+        trees.put("", root);
+        int count = 0;
+        for (GitlabRepositoryTree entry : entries) {
+            if (++count > maxEntries) {
+                return null;
+            }
+            String path = entry.getPath();
+            // the same precedence as DirectoryListing, where a blob is a file whatever its mode
+            Kind kind = "blob".equals(entry.getType()) ? Kind.BLOB
+                    : "tree".equals(entry.getType()) ? Kind.TREE
+                    : "120000".equals(entry.getMode()) ? Kind.LINK
+                    : Kind.OTHER;
+            if (trees.containsKey(path)) {
+                continue; // already added along with one of its entries
+            }
+            Node node = new Node(entry.getName(), kind, entry.getId());
+            if (kind == Kind.TREE) {
+                trees.put(path, node);
+            }
+            int slash = path.lastIndexOf('/');
+            add(children, tree(trees, children, slash < 0 ? "" : path.substring(0, slash)), node);
+        }
+        for (Map.Entry<Node, List<Node>> e : children.entrySet()) {
+            Node[] array = e.getValue().toArray(new Node[e.getValue().size()]);
+            Arrays.sort(array);
+            e.getKey().children = array;
+        }
+        return new TreeSnapshot(root);
+    }
+
+    /**
+     * The node of a directory, even if its own entry has not been listed yet.
+     */
+    private static Node tree(Map<String, Node> trees, Map<Node, List<Node>> children, String path) {
+        Node node = trees.get(path);
+        if (node == null) {
+            int slash = path.lastIndexOf('/');
+            node = new Node(path.substring(slash + 1), Kind.TREE, null);
+            trees.put(path, node);
+            add(children, tree(trees, children, slash < 0 ? "" : path.substring(0, slash)), node);
+        }
+        return node;
+    }
+
+    private static void add(Map<Node, List<Node>> children, Node parent, Node child) {
+        List<Node> list = children.get(parent);
+        if (list == null) {
+            list = new ArrayList<>();
+            children.put(parent, list);
+        }
+        list.add(child);
+    }
+
+    /**
+     * Whether the server listed the subdirectories too; a server that ignores {@code recursive} only lists the
+     * top level directory.
+     */
+    boolean isRecursive() {
+        boolean trees = false;
+        for (Node child : root.children) {
+            if (child.children.length > 0) {
+                return true;
+            }
+            trees |= child.kind == Kind.TREE;
+        }
+        return !trees;
+    }
+
+    @CheckForNull
+    private Node find(@Nonnull String path) {
+        Node node = root;
+        for (String name : path.split("/")) {
+            if (name.isEmpty()) {
+                continue;
+            }
+            node = node.child(name);
+            if (node == null) {
+                return null;
+            }
+        }
+        return node;
+    }
+
+    /**
+     * What {@link GitLabSCMProbe#stat(String)} answers, including the path with a different case if that exists.
+     */
+    @Nonnull
+    SCMProbeStat stat(@Nonnull String path) {
+        int slash = path.lastIndexOf('/');
+        Node parent = find(slash < 0 ? "" : path.substring(0, slash));
+        if (parent != null) {
+            String name = path.substring(slash + 1);
+            Node node = parent.child(name);
+            if (node != null) {
+                return SCMProbeStat.fromType(node.getType());
+            }
+            for (Node child : parent.children) {
+                if (child.name.equalsIgnoreCase(name)) {
+                    return SCMProbeStat.fromAlternativePath(path.substring(0, slash + 1) + child.name);
+                }
+            }
+        }
+        return SCMProbeStat.fromType(SCMFile.Type.NONEXISTENT);
+    }
+
+    @Nonnull
+    SCMFile.Type type(@Nonnull String path) {
+        Node node = find(path);
+        return node == null ? SCMFile.Type.NONEXISTENT : node.getType();
+    }
+
+    /**
+     * The blob id of a file, or {@code null} if it is not a file; the id of a submodule is that of a commit of
+     * another repository.
+     */
+    @CheckForNull
+    String blobId(@Nonnull String path) {
+        Node node = find(path);
+        return node == null || node.kind != Kind.BLOB ? null : node.id;
+    }
+
+    /**
+     * The names and kinds of the entries of a directory.
+     *
+     * @throws FileNotFoundException if there is no such directory.
+     */
+    @Nonnull
+    Map<String, Kind> children(@Nonnull String path) throws FileNotFoundException {
+        Node node = find(path);
+        if (node == null || node.kind != Kind.TREE) {
+            throw new FileNotFoundException(path);
+        }
+        Map<String, Kind> result = new LinkedHashMap<>();
+        for (Node child : node.children) {
+            result.put(child.name, child.kind);
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * An entry of the tree, with its entries sorted by name if it is a directory.
+     */
+    private static final class Node implements Comparable<Node> {
+        private static final Node[] NONE = new Node[0];
+
+        private final String name;
+        private final Kind kind;
+        @CheckForNull
+        private final String id;
+        private Node[] children = NONE;
+
+        Node(String name, Kind kind, @CheckForNull String id) {
+            this.name = name;
+            this.kind = kind;
+            this.id = id;
+        }
+
+        @CheckForNull
+        Node child(String name) {
+            int lo = 0;
+            int hi = children.length - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int c = children[mid].name.compareTo(name);
+                if (c < 0) {
+                    lo = mid + 1;
+                } else if (c > 0) {
+                    hi = mid - 1;
+                } else {
+                    return children[mid];
+                }
+            }
+            return null;
+        }
+
+        SCMFile.Type getType() {
+            switch (kind) {
+                case BLOB:
+                    return SCMFile.Type.REGULAR_FILE;
+                case TREE:
+                    return SCMFile.Type.DIRECTORY;
+                case LINK:
+                    return SCMFile.Type.LINK;
+                default:
+                    return SCMFile.Type.OTHER;
+            }
+        }
+
+        @Override
+        public int compareTo(@Nonnull Node o) {
+            return name.compareTo(o.name);
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package org.jenkinsci.plugins.gitlab_branch_source;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.annotation.Nonnull;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class BlobCacheTest {
+
+    // git hash-object of "one\n", "two\n" and "six\n"
+    private static final String ONE = "5626abf0f72e58d7a153368ba57db4c673c0e171";
+    private static final String TWO = "f719efd430d52bcfc8566a43b2eb655688d38871";
+    private static final String SIX = "ffe2fce498955b628014618b28c6bcf152466a4a";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    /**
+     * Serves a fixed content, counting the downloads.
+     */
+    private static final class Content implements BlobCache.Download {
+        private final String content;
+        private final AtomicInteger downloads = new AtomicInteger();
+
+        Content(String content) {
+            this.content = content;
+        }
+
+        @Nonnull
+        @Override
+        public InputStream open() throws IOException, InterruptedException {
+            downloads.incrementAndGet();
+            return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static String read(BlobCache cache, String blobId, BlobCache.Download download) throws Exception {
+        try (InputStream in = cache.open(blobId, download)) {
+            return IOUtils.toString(in, "UTF-8");
+        }
+    }
+
+    private File file(String blobId) {
+        return new File(new File(tmp.getRoot(), blobId.substring(0, 2)), blobId);
+    }
+
+    @Test
+    public void hitAndMiss() throws Exception {
+        BlobCache cache = new BlobCache(tmp.getRoot(), 1024);
+        Content one = new Content("one\n");
+        assertThat(read(cache, ONE, one), is("one\n"));
+        assertThat(read(cache, ONE, one), is("one\n"));
+        assertThat(one.downloads.get(), is(1));
+        assertThat(cache.getMisses(), is(1L));
+        assertThat(cache.getHits(), is(1L));
+        assertThat(cache.getHitRatio(), is(0.5));
+        assertThat(file(ONE).isFile(), is(true));
+    }
+
+    @Test
+    public void notABlobId() throws Exception {
+        BlobCache cache = new BlobCache(tmp.getRoot(), 1024);
+        Content one = new Content("one\n");
+        assertThat(read(cache, "master", one), is("one\n"));
+        assertThat(read(cache, "master", one), is("one\n"));
+        assertThat(one.downloads.get(), is(2));
+        assertThat(cache.getEntryCount(), is(0));
+    }
+
+    @Test
+    public void leastRecentlyUsedEvicted() throws Exception {
+        BlobCache cache = new BlobCache(tmp.getRoot(), 8);
+        Content one = new Content("one\n");
+        Content two = new Content("two\n");
+        read(cache, ONE, one);
+        read(cache, TWO, two);
+        read(cache, ONE, one);
+        read(cache, SIX, new Content("six\n"));
+        assertThat(cache.getEvictions(), is(1L));
+        assertThat(cache.getEntryCount(), is(2));
+        assertThat(cache.getSize(), is(8L));
+        assertThat(file(TWO).exists(), is(false));
+        assertThat(file(ONE).isFile(), is(true));
+        read(cache, ONE, one);
+        assertThat(one.downloads.get(), is(1));
+        read(cache, TWO, two);
+        assertThat(two.downloads.get(), is(2));
+    }
+
+    @Test
+    public void entriesBeingReadNotEvicted() throws Exception {
+        BlobCache cache = new BlobCache(tmp.getRoot(), 4);
+        try (InputStream reading = cache.open(ONE, new Content("one\n"))) {
+            read(cache, TWO, new Content("two\n"));
+            // only the entry nobody reads any more could go
+            assertThat(file(ONE).isFile(), is(true));
+            assertThat(file(TWO).exists(), is(false));
+            assertThat(IOUtils.toString(reading, "UTF-8"), is("one\n"));
+        }
+        assertThat(cache.getEntryCount(), is(1));
+        assertThat(cache.getSize(), is(4L));
+        read(cache, SIX, new Content("six\n"));
+        assertThat(file(ONE).exists(), is(false));
+        assertThat(file(SIX).isFile(), is(true));
+    }
+
+    @Test
+    public void corruptEntryDownloadedAgain() throws Exception {
+        FileUtils.writeStringToFile(file(ONE), "on", "UTF-8");
+        BlobCache cache = new BlobCache(tmp.getRoot(), 1024);
+        Content one = new Content("one\n");
+        assertThat(read(cache, ONE, one), is("one\n"));
+        assertThat(one.downloads.get(), is(1));
+        assertThat(FileUtils.readFileToString(file(ONE), "UTF-8"), is("one\n"));
+        assertThat(cache.getSize(), is(4L));
+    }
+
+    @Test
+    public void entryLeftByPreviousRun() throws Exception {
+        FileUtils.writeStringToFile(file(ONE), "one\n", "UTF-8");
+        FileUtils.writeStringToFile(new File(file(TWO).getPath() + ".tmp1"), "tw", "UTF-8");
+        BlobCache cache = new BlobCache(tmp.getRoot(), 1024);
+        Content one = new Content("one\n");
+        assertThat(read(cache, ONE, one), is("one\n"));
+        assertThat(one.downloads.get(), is(0));
+        // the partial download is cleaned up
+        assertThat(new File(file(TWO).getPath() + ".tmp1").exists(), is(false));
+    }
+
+    @Test
+    public void truncatedBehindOurBack() throws Exception {
+        BlobCache cache = new BlobCache(tmp.getRoot(), 1024);
+        Content one = new Content("one\n");
+        read(cache, ONE, one);
+        FileUtils.writeStringToFile(file(ONE), "on", "UTF-8");
+        assertThat(read(cache, ONE, one), is("one\n"));
+        assertThat(one.downloads.get(), is(2));
+    }
+
+    @Test
+    public void corruptDownload() throws Exception {
+        BlobCache cache = new BlobCache(tmp.getRoot(), 1024);
+        try {
+            read(cache, ONE, new Content("two\n"));
+            fail("content that does not match the blob id should not be cached");
+        } catch (IOException expected) {
+            // expected
+        }
+        assertThat(cache.getEntryCount(), is(0));
+        assertThat(file(ONE).exists(), is(false));
+        assertThat(file(ONE).getParentFile().list().length, is(0));
+    }
+
+    @Test
+    public void concurrentPutOfTheSameBlob() throws Exception {
+        final BlobCache cache = new BlobCache(tmp.getRoot(), 1024);
+        final CyclicBarrier bothMissed = new CyclicBarrier(2);
+        final BlobCache.Download one = new BlobCache.Download() {
+            @Nonnull
+            @Override
+            public InputStream open() throws IOException, InterruptedException {
+                try {
+                    bothMissed.await(10, TimeUnit.SECONDS);
+                } catch (Exception e) {
+                    throw new IOException(e);
+                }
+                return new ByteArrayInputStream("one\n".getBytes(StandardCharsets.UTF_8));
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<String>> reads = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                reads.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return read(cache, ONE, one);
+                    }
+                }));
+            }
+            for (Future<String> f : reads) {
+                assertThat(f.get(10, TimeUnit.SECONDS), is("one\n"));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertThat(cache.getMisses(), is(2L));
+        assertThat(cache.getEntryCount(), is(1));
+        assertThat(cache.getSize(), is(4L));
+        assertThat(file(ONE).getParentFile().list().length, is(1));
+    }
+}
@@ -0,0 +1,43 @@
+package org.jenkinsci.plugins.gitlab_branch_source;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class BranchSearchTermsTest {
+
+    @Test
+    public void literal() {
+        assertThat(GitLabSCMSource.branchSearchTerms("master"), contains("master"));
+    }
+
+    @Test
+    public void longestLiteralOfEachPattern() {
+        assertThat(GitLabSCMSource.branchSearchTerms("release-* feature/*-ui"), contains("release-", "feature/"));
+    }
+
+    @Test
+    public void anyWhitespace() {
+        assertThat(GitLabSCMSource.branchSearchTerms("  master\trelease-*\n  hotfix-*  "),
+                contains("master", "release-", "hotfix-"));
+    }
+
+    @Test
+    public void duplicates() {
+        assertThat(GitLabSCMSource.branchSearchTerms("release-* *release-*"), contains("release-"));
+    }
+
+    @Test
+    public void wildcardMatchesEverything() {
+        assertThat(GitLabSCMSource.branchSearchTerms("master *"), nullValue());
+        assertThat(GitLabSCMSource.branchSearchTerms("master **"), nullValue());
+    }
+
+    @Test
+    public void empty() {
+        assertThat(GitLabSCMSource.branchSearchTerms(""), nullValue());
+        assertThat(GitLabSCMSource.branchSearchTerms("   "), nullValue());
+    }
+}
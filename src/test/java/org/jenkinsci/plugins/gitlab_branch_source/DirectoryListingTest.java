@@ -0,0 +1,56 @@
+package org.jenkinsci.plugins.gitlab_branch_source;
+
+import jenkins.scm.api.SCMFile;
+import jenkins.scm.api.SCMProbeStat;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.jenkinsci.plugins.gitlab_branch_source.TreeSnapshotTest.entry;
+import static org.junit.Assert.assertThat;
+
+public class DirectoryListingTest {
+
+    @Test
+    public void stat() {
+        DirectoryListing listing = new DirectoryListing(Arrays.asList(
+                entry("src/Main.java", "blob", "100644", "b1"),
+                entry("src/main", "tree", "040000", "t1"),
+                entry("src/link", "blob", "120000", "b2"),
+                entry("src/module", "commit", "160000", "c1")));
+        assertThat(listing.stat("src/Main.java").getType(), is(SCMFile.Type.REGULAR_FILE));
+        assertThat(listing.stat("src/main").getType(), is(SCMFile.Type.DIRECTORY));
+        assertThat(listing.stat("src/link").getType(), is(SCMFile.Type.REGULAR_FILE));
+        assertThat(listing.stat("src/module").getType(), is(SCMFile.Type.OTHER));
+        SCMProbeStat missing = listing.stat("src/Test.java");
+        assertThat(missing.getType(), is(SCMFile.Type.NONEXISTENT));
+        assertThat(missing.getAlternativePath(), nullValue());
+    }
+
+    @Test
+    public void alternativePath() {
+        DirectoryListing listing = new DirectoryListing(Arrays.asList(
+                entry("jenkinsfile", "blob", "100644", "b1")));
+        SCMProbeStat stat = listing.stat("Jenkinsfile");
+        assertThat(stat.getType(), is(SCMFile.Type.NONEXISTENT));
+        assertThat(stat.getAlternativePath(), is("jenkinsfile"));
+    }
+
+    @Test
+    public void exactMatchWinsOverCaseFolding() {
+        DirectoryListing listing = new DirectoryListing(Arrays.asList(
+                entry("jenkinsfile", "blob", "100644", "b1"),
+                entry("Jenkinsfile", "blob", "100644", "b2")));
+        assertThat(listing.stat("Jenkinsfile").getType(), is(SCMFile.Type.REGULAR_FILE));
+        assertThat(listing.stat("jenkinsfile").getType(), is(SCMFile.Type.REGULAR_FILE));
+        // the first one listed
+        assertThat(listing.stat("JENKINSFILE").getAlternativePath(), is("jenkinsfile"));
+    }
+
+    @Test
+    public void none() {
+        assertThat(DirectoryListing.NONE.stat("src/Main.java").getType(), is(SCMFile.Type.NONEXISTENT));
+    }
+}
@@ -0,0 +1,110 @@
+package org.jenkinsci.plugins.gitlab_branch_source;
+
+import jenkins.scm.api.SCMEvent;
+import net.sf.json.JSONObject;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.jenkinsci.plugins.gitlab_branch_source.GitLabWebHookPayloadTest.SHA1;
+import static org.jenkinsci.plugins.gitlab_branch_source.GitLabWebHookPayloadTest.SHA2;
+import static org.jenkinsci.plugins.gitlab_branch_source.GitLabWebHookPayloadTest.mergeRequest;
+import static org.jenkinsci.plugins.gitlab_branch_source.GitLabWebHookPayloadTest.parse;
+import static org.jenkinsci.plugins.gitlab_branch_source.GitLabWebHookPayloadTest.push;
+import static org.junit.Assert.assertThat;
+
+public class GitLabEventCoalescerTest {
+
+    private final GitLabEventCoalescer.Batch batch = new GitLabEventCoalescer.Batch("gitlab\t15", 0);
+
+    private static GitLabWebHookPayload branch(String name, String before, String after) {
+        return parse("Push Hook", push("refs/heads/" + name, before, after));
+    }
+
+    private boolean add(GitLabWebHookPayload payload) {
+        return batch.add(payload, payload.getType(), "origin", 0);
+    }
+
+    @Test
+    public void latestHookOfRef() {
+        GitLabWebHookPayload first = branch("master", SHA1, SHA2);
+        GitLabWebHookPayload second = branch("master", SHA2, SHA1);
+        assertThat(add(first), is(true));
+        assertThat(add(second), is(false));
+        List<GitLabSCMHeadEvent> events = batch.toEvents();
+        assertThat(events, hasSize(1));
+        assertThat(events.get(0).getType(), is(SCMEvent.Type.UPDATED));
+        assertThat(events.get(0).getPayloads(), contains(sameInstance(second)));
+        assertThat(events.get(0).getOrigin(), is("origin"));
+    }
+
+    @Test
+    public void createdStaysCreated() {
+        add(branch("feature", GitLabWebHookPayload.NO_COMMIT, SHA1));
+        add(branch("feature", SHA1, SHA2));
+        List<GitLabSCMHeadEvent> events = batch.toEvents();
+        assertThat(events, hasSize(1));
+        assertThat(events.get(0).getType(), is(SCMEvent.Type.CREATED));
+        assertThat(events.get(0).getPayload().getAfter(), is(SHA2));
+    }
+
+    @Test
+    public void removedAfterCreated() {
+        add(branch("feature", GitLabWebHookPayload.NO_COMMIT, SHA1));
+        add(branch("feature", SHA1, GitLabWebHookPayload.NO_COMMIT));
+        List<GitLabSCMHeadEvent> events = batch.toEvents();
+        assertThat(events, hasSize(1));
+        assertThat(events.get(0).getType(), is(SCMEvent.Type.REMOVED));
+    }
+
+    @Test
+    public void refsMergedInOrderOfLatestHook() {
+        GitLabWebHookPayload a1 = branch("a", SHA1, SHA2);
+        GitLabWebHookPayload b = branch("b", SHA1, SHA2);
+        GitLabWebHookPayload a2 = branch("a", SHA2, SHA1);
+        assertThat(add(a1), is(true));
+        assertThat(add(b), is(true));
+        assertThat(add(a2), is(false));
+        List<GitLabSCMHeadEvent> events = batch.toEvents();
+        assertThat(events, hasSize(1));
+        assertThat(events.get(0).getPayloads(), contains(sameInstance(b), sameInstance(a2)));
+        assertThat(events.get(0).getPayload(), sameInstance(a2));
+    }
+
+    @Test
+    public void oneEventPerType() {
+        GitLabWebHookPayload created = branch("a", GitLabWebHookPayload.NO_COMMIT, SHA1);
+        GitLabWebHookPayload removed = branch("b", SHA1, GitLabWebHookPayload.NO_COMMIT);
+        GitLabWebHookPayload updated = branch("c", SHA1, SHA2);
+        GitLabWebHookPayload alsoCreated = branch("d", GitLabWebHookPayload.NO_COMMIT, SHA2);
+        add(created);
+        add(removed);
+        add(updated);
+        add(alsoCreated);
+        List<GitLabSCMHeadEvent> events = batch.toEvents();
+        assertThat(events, hasSize(3));
+        assertThat(events.get(0).getType(), is(SCMEvent.Type.CREATED));
+        assertThat(events.get(0).getPayloads(), contains(sameInstance(created), sameInstance(alsoCreated)));
+        assertThat(events.get(1).getType(), is(SCMEvent.Type.REMOVED));
+        assertThat(events.get(1).getPayloads(), contains(sameInstance(removed)));
+        assertThat(events.get(2).getType(), is(SCMEvent.Type.UPDATED));
+        assertThat(events.get(2).getPayloads(), contains(sameInstance(updated)));
+    }
+
+    @Test
+    public void distinctKindsOfRefs() {
+        // a branch, a tag and a merge request that happen to share a name are different refs
+        assertThat(add(branch("7", SHA1, SHA2)), is(true));
+        assertThat(add(parse("Tag Push Hook", push("refs/tags/7", SHA1, SHA2))), is(true));
+        assertThat(add(parse("Merge Request Hook", mergeRequest("update", "opened", SHA1))), is(true));
+        assertThat(add(parse("Merge Request Hook", mergeRequest("update", "opened", SHA2))), is(false));
+        JSONObject other = mergeRequest("update", "opened", SHA1);
+        other.getJSONObject("object_attributes").put("iid", 8);
+        assertThat(add(parse("Merge Request Hook", other)), is(true));
+        assertThat(batch.toEvents().get(0).getPayloads(), hasSize(4));
+    }
+}
@@ -0,0 +1,107 @@
+package org.jenkinsci.plugins.gitlab_branch_source;
+
+import net.sf.json.JSONObject;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.jenkinsci.plugins.gitlab_branch_source.GitLabWebHookPayloadTest.SHA1;
+import static org.jenkinsci.plugins.gitlab_branch_source.GitLabWebHookPayloadTest.SHA2;
+import static org.jenkinsci.plugins.gitlab_branch_source.GitLabWebHookPayloadTest.mergeRequest;
+import static org.jenkinsci.plugins.gitlab_branch_source.GitLabWebHookPayloadTest.parse;
+import static org.jenkinsci.plugins.gitlab_branch_source.GitLabWebHookPayloadTest.push;
+import static org.junit.Assert.assertThat;
+
+public class GitLabEventJournalTest {
+
+    private static Map<Long, String> read(String... lines) throws Exception {
+        StringBuilder journal = new StringBuilder();
+        for (String line : lines) {
+            journal.append(line).append('\n');
+        }
+        return GitLabEventJournal.readOutstanding(new BufferedReader(new StringReader(journal.toString())));
+    }
+
+    @Test
+    public void escaping() {
+        String value = "a\tb\nc\rd\\e\\tf";
+        String escaped = GitLabEventJournal.escape(value);
+        assertThat(escaped.indexOf('\t'), is(-1));
+        assertThat(escaped.indexOf('\n'), is(-1));
+        assertThat(escaped.indexOf('\r'), is(-1));
+        assertThat(GitLabEventJournal.unescape(escaped), is(value));
+    }
+
+    @Test
+    public void nullAndEmpty() {
+        assertThat(GitLabEventJournal.escape(null), is(""));
+        assertThat(GitLabEventJournal.unescape(GitLabEventJournal.escape(null)), nullValue());
+        assertThat(GitLabEventJournal.unescape(""), nullValue());
+    }
+
+    @Test
+    public void entryRoundTrip() {
+        JSONObject json = mergeRequest("open", "opened", SHA1);
+        json.getJSONObject("object_attributes").put("title", "Add a \"feature\"\n\\o/");
+        // with whitespace of its own, and escapes in its strings
+        String body = "\t\r\n" + json.toString(2);
+        GitLabWebHookPayload payload = new GitLabWebHookPayload("gitlab", "Merge Request Hook", body);
+        String line = GitLabEventJournal.entry(3, payload, "10.0.0.1");
+        assertThat(line.indexOf('\n'), is(-1));
+        assertThat(line.split("\t", -1).length, is(6));
+        Map.Entry<GitLabWebHookPayload, String> hook = GitLabEventJournal.parse(line);
+        assertThat(hook.getKey().getBody(), is(body));
+        assertThat(hook.getKey().getEndpoint(), is("gitlab"));
+        assertThat(hook.getKey().getEventType(), is("Merge Request Hook"));
+        assertThat(hook.getKey().getTitle(), is("Add a \"feature\"\n\\o/"));
+        assertThat(hook.getKey().getAuthorUsername(), is("jdoe"));
+        assertThat(hook.getValue(), is("10.0.0.1"));
+    }
+
+    @Test
+    public void entryWithoutEndpointOrOrigin() {
+        GitLabWebHookPayload payload = new GitLabWebHookPayload(null, "Push Hook",
+                push("refs/heads/master", SHA1, SHA2).toString());
+        Map.Entry<GitLabWebHookPayload, String> hook =
+                GitLabEventJournal.parse(GitLabEventJournal.entry(1, payload, null));
+        assertThat(hook.getKey().getEndpoint(), nullValue());
+        assertThat(hook.getKey().getRef(), is("master"));
+        assertThat(hook.getValue(), nullValue());
+    }
+
+    @Test
+    public void acknowledgedHooksAreNotReplayed() throws Exception {
+        GitLabWebHookPayload a = parse("Push Hook", push("refs/heads/a", SHA1, SHA2));
+        GitLabWebHookPayload b = parse("Push Hook", push("refs/heads/b", SHA1, SHA2));
+        GitLabWebHookPayload c = parse("Push Hook", push("refs/heads/c", SHA1, SHA2));
+        Map<Long, String> outstanding = read(
+                GitLabEventJournal.entry(1, a, null),
+                GitLabEventJournal.entry(2, b, null),
+                "A\t1",
+                GitLabEventJournal.entry(3, c, null));
+        assertThat(outstanding.keySet(), contains(2L, 3L));
+        assertThat(GitLabEventJournal.parse(outstanding.get(2L)).getKey().getRef(), is("b"));
+        assertThat(GitLabEventJournal.parse(outstanding.get(3L)).getKey().getRef(), is("c"));
+    }
+
+    @Test
+    public void tornLinesAreSkipped() throws Exception {
+        GitLabWebHookPayload a = parse("Push Hook", push("refs/heads/a", SHA1, SHA2));
+        String entry = GitLabEventJournal.entry(2, a, null);
+        Map<Long, String> outstanding = read(
+                GitLabEventJournal.entry(1, a, null),
+                "A\t",
+                "A\t1x",
+                "E\t2",
+                entry,
+                // what a crash halfway through writing the next line leaves behind
+                "E\t3\tgitlab\tPush Ho",
+                "");
+        assertThat(outstanding.keySet(), contains(1L, 2L));
+    }
+}
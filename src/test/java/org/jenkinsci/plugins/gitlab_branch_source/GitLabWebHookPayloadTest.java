@@ -0,0 +1,176 @@
+package org.jenkinsci.plugins.gitlab_branch_source;
+
+import jenkins.scm.api.SCMEvent;
+import net.sf.json.JSONObject;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class GitLabWebHookPayloadTest {
+
+    static final String SHA1 = "da1560886d4f094c3e6c9ef40349f7d38b5d27d7";
+    static final String SHA2 = "b6568db1bc1dcd7f8b4d5a946b0b91f9dacd7327";
+
+    private static JSONObject project() {
+        JSONObject project = new JSONObject();
+        project.put("id", 15);
+        project.put("name", "project");
+        project.put("path_with_namespace", "group/project");
+        project.put("web_url", "https://gitlab.example.com/group/project");
+        project.put("default_branch", "master");
+        return project;
+    }
+
+    static JSONObject push(String ref, String before, String after) {
+        JSONObject json = new JSONObject();
+        json.put("ref", ref);
+        json.put("before", before);
+        json.put("after", after);
+        json.put("project_id", 15);
+        json.put("project", project());
+        return json;
+    }
+
+    static JSONObject mergeRequest(String action, String state, String head) {
+        JSONObject mr = new JSONObject();
+        mr.put("iid", 7);
+        mr.put("target_project_id", 15);
+        mr.put("source_project_id", 16);
+        mr.put("source_branch", "feature");
+        mr.put("target_branch", "master");
+        mr.put("title", "Add a feature");
+        mr.put("url", "https://gitlab.example.com/group/project/merge_requests/7");
+        mr.put("author_id", 51);
+        if (action != null) {
+            mr.put("action", action);
+        }
+        mr.put("state", state);
+        if (head != null) {
+            JSONObject lastCommit = new JSONObject();
+            lastCommit.put("id", head);
+            mr.put("last_commit", lastCommit);
+        }
+        JSONObject user = new JSONObject();
+        user.put("username", "jdoe");
+        user.put("name", "J. Doe");
+        user.put("email", "jdoe@example.com");
+        JSONObject json = new JSONObject();
+        json.put("object_kind", "merge_request");
+        json.put("user", user);
+        json.put("project", project());
+        json.put("object_attributes", mr);
+        return json;
+    }
+
+    static GitLabWebHookPayload parse(String eventType, JSONObject json) {
+        return new GitLabWebHookPayload("gitlab", eventType, json.toString());
+    }
+
+    @Test
+    public void push() {
+        GitLabWebHookPayload payload = parse("Push Hook", push("refs/heads/feature/x", SHA1, SHA2));
+        assertThat(payload.getKind(), is(GitLabWebHookPayload.Kind.PUSH));
+        assertThat(payload.getEndpoint(), is("gitlab"));
+        assertThat(payload.getProjectId(), is(15));
+        assertThat(payload.getProjectPath(), is("group/project"));
+        assertThat(payload.getProjectDefaultBranch(), is("master"));
+        assertThat(payload.getRef(), is("feature/x"));
+        assertThat(payload.getAfter(), is(SHA2));
+        assertThat(payload.isFork(), is(false));
+        assertThat(payload.getType(), is(SCMEvent.Type.UPDATED));
+    }
+
+    @Test
+    public void pushCreatesAndRemoves() {
+        assertThat(parse("Push Hook", push("refs/heads/master", GitLabWebHookPayload.NO_COMMIT, SHA1)).getType(),
+                is(SCMEvent.Type.CREATED));
+        assertThat(parse("Push Hook", push("refs/heads/master", SHA1, GitLabWebHookPayload.NO_COMMIT)).getType(),
+                is(SCMEvent.Type.REMOVED));
+    }
+
+    @Test
+    public void tagPush() {
+        GitLabWebHookPayload payload = parse("Tag Push Hook",
+                push("refs/tags/v1.0", GitLabWebHookPayload.NO_COMMIT, SHA1));
+        assertThat(payload.getKind(), is(GitLabWebHookPayload.Kind.TAG_PUSH));
+        assertThat(payload.getRef(), is("v1.0"));
+        assertThat(payload.getType(), is(SCMEvent.Type.CREATED));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tagRefInPushHook() {
+        parse("Push Hook", push("refs/tags/v1.0", SHA1, SHA2));
+    }
+
+    @Test
+    public void projectIdFromProject() {
+        JSONObject json = push("refs/heads/master", SHA1, SHA2);
+        json.remove("project_id");
+        assertThat(parse("Push Hook", json).getProjectId(), is(15));
+    }
+
+    @Test
+    public void mergeRequest() {
+        GitLabWebHookPayload payload = parse("Merge Request Hook", mergeRequest("update", "opened", SHA1));
+        assertThat(payload.getKind(), is(GitLabWebHookPayload.Kind.MERGE_REQUEST));
+        assertThat(payload.getNumber(), is(7));
+        assertThat(payload.getProjectId(), is(15));
+        assertThat(payload.getSourceProjectId(), is(16));
+        assertThat(payload.isFork(), is(true));
+        assertThat(payload.getRef(), is("feature"));
+        assertThat(payload.getTargetBranch(), is("master"));
+        assertThat(payload.getAfter(), is(SHA1));
+        assertThat(payload.getTitle(), is("Add a feature"));
+        assertThat(payload.getAuthorId(), is(51));
+        assertThat(payload.getType(), is(SCMEvent.Type.UPDATED));
+    }
+
+    @Test
+    public void mergeRequestTypes() {
+        assertThat(parse("Merge Request Hook", mergeRequest("open", "opened", SHA1)).getType(),
+                is(SCMEvent.Type.CREATED));
+        assertThat(parse("Merge Request Hook", mergeRequest("reopen", "reopened", SHA1)).getType(),
+                is(SCMEvent.Type.CREATED));
+        assertThat(parse("Merge Request Hook", mergeRequest("close", "closed", SHA1)).getType(),
+                is(SCMEvent.Type.REMOVED));
+        assertThat(parse("Merge Request Hook", mergeRequest("merge", "merged", SHA1)).getType(),
+                is(SCMEvent.Type.REMOVED));
+        // nothing to build without a head commit
+        assertThat(parse("Merge Request Hook", mergeRequest("update", "opened", null)).getType(), nullValue());
+    }
+
+    @Test
+    public void authorOnlyWhenOpened() {
+        GitLabWebHookPayload opened = parse("Merge Request Hook", mergeRequest("open", "opened", SHA1));
+        assertThat(opened.getAuthorUsername(), is("jdoe"));
+        assertThat(opened.getAuthorName(), is("J. Doe"));
+        assertThat(opened.getAuthorEmail(), is("jdoe@example.com"));
+        // whoever triggered a later hook need not be the author
+        for (String action : new String[]{"update", "approved", "merge", null}) {
+            GitLabWebHookPayload later = parse("Merge Request Hook", mergeRequest(action, "opened", SHA1));
+            assertThat(action, later.getAuthorUsername(), nullValue());
+            assertThat(action, later.getAuthorName(), nullValue());
+            assertThat(action, later.getAuthorEmail(), nullValue());
+            assertThat(action, later.getAuthorId(), is(51));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unsupportedEvent() {
+        parse("Note Hook", push("refs/heads/master", SHA1, SHA2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void withoutProject() {
+        JSONObject json = push("refs/heads/master", SHA1, SHA2);
+        json.remove("project");
+        parse("Push Hook", json);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void malformed() {
+        new GitLabWebHookPayload("gitlab", "Push Hook", "{not json");
+    }
+}
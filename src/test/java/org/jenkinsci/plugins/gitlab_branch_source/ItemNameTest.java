@@ -0,0 +1,38 @@
+package org.jenkinsci.plugins.gitlab_branch_source;
+
+import jenkins.model.Jenkins;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+
+public class ItemNameTest {
+
+    @Test
+    public void projectOfTheGroup() {
+        assertThat(GitLabSCMNavigator.itemNameOf("service"), is("service"));
+        assertThat(GitLabSCMNavigator.itemNameOf("My Service-2.0"), is("My Service-2.0"));
+    }
+
+    @Test
+    public void projectOfASubgroup() {
+        assertThat(GitLabSCMNavigator.itemNameOf("team/service"), is("team~service"));
+        assertThat(GitLabSCMNavigator.itemNameOf("team/backend/service"), is("team~backend~service"));
+    }
+
+    @Test
+    public void noCollisions() {
+        assertThat(GitLabSCMNavigator.itemNameOf("team/service"), not(GitLabSCMNavigator.itemNameOf("team-service")));
+        assertThat(GitLabSCMNavigator.itemNameOf("a-b/c"), not(GitLabSCMNavigator.itemNameOf("a/b-c")));
+        assertThat(GitLabSCMNavigator.itemNameOf("a.b/c"), not(GitLabSCMNavigator.itemNameOf("a/b.c")));
+    }
+
+    @Test
+    public void legal() {
+        for (String path : new String[]{"team/service", "team/backend/my_service.v2", "a-b/c"}) {
+            // throws if not
+            Jenkins.checkGoodName(GitLabSCMNavigator.itemNameOf(path));
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package org.jenkinsci.plugins.gitlab_branch_source;
+
+import org.gitlab.api.GitlabAPI;
+import org.gitlab.api.http.GitlabHTTPRequestor;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class PagedIterableTest {
+
+    private static final Pattern PAGE = Pattern.compile("[?&]page=(\\d+)&per_page=" + PagedIterable.PER_PAGE + "$");
+
+    private GitlabAPI api;
+    private final List<String> requested = Collections.synchronizedList(new ArrayList<String>());
+
+    @Before
+    public void mockApi() {
+        api = mock(GitlabAPI.class);
+        when(api.retrieve()).thenReturn(mock(GitlabHTTPRequestor.class));
+    }
+
+    /**
+     * Serves a listing of {@code total} items, failing with {@code failure} from page {@code failingPage} on.
+     */
+    private void serve(final int total, final int failingPage, final IOException failure) throws IOException {
+        when(api.retrieve().to(anyString(), eq(String[].class))).thenAnswer(new Answer<String[]>() {
+            @Override
+            public String[] answer(InvocationOnMock invocation) throws Throwable {
+                String url = (String) invocation.getArguments()[0];
+                requested.add(url);
+                Matcher m = PAGE.matcher(url);
+                assertThat(url, m.find(), is(true));
+                int page = Integer.parseInt(m.group(1));
+                if (failingPage > 0 && page >= failingPage) {
+                    throw failure;
+                }
+                int from = Math.min(total, (page - 1) * PagedIterable.PER_PAGE);
+                int to = Math.min(total, page * PagedIterable.PER_PAGE);
+                String[] items = new String[to - from];
+                for (int i = from; i < to; i++) {
+                    items[i - from] = "item" + i;
+                }
+                return items;
+            }
+        });
+    }
+
+    private void serve(int total) throws IOException {
+        serve(total, 0, null);
+    }
+
+    /**
+     * Serves a full first page, then blocks on the second one until interrupted.
+     */
+    private void serveBlocking(final CountDownLatch fetching, final CountDownLatch cancelled) throws IOException {
+        when(api.retrieve().to(anyString(), eq(String[].class))).thenAnswer(new Answer<String[]>() {
+            @Override
+            public String[] answer(InvocationOnMock invocation) throws Throwable {
+                requested.add((String) invocation.getArguments()[0]);
+                if (requested.size() == 1) {
+                    return new String[PagedIterable.PER_PAGE];
+                }
+                fetching.countDown();
+                try {
+                    Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+                } catch (InterruptedException e) {
+                    cancelled.countDown();
+                }
+                return new String[0];
+            }
+        });
+    }
+
+    private static int count(Iterable<String> iterable) {
+        int count = 0;
+        for (String item : iterable) {
+            assertThat(item, is("item" + count));
+            count++;
+        }
+        return count;
+    }
+
+    @Test
+    public void allPages() throws Exception {
+        serve(205);
+        assertThat(count(new PagedIterable<>(api, "/projects", String[].class)), is(205));
+        assertThat(requested, contains(
+                "/projects?page=1&per_page=100",
+                "/projects?page=2&per_page=100",
+                "/projects?page=3&per_page=100"));
+    }
+
+    @Test
+    public void emptyLastPage() throws Exception {
+        serve(100);
+        assertThat(count(new PagedIterable<>(api, "/projects", String[].class)), is(100));
+        assertThat(requested, contains(
+                "/projects?page=1&per_page=100",
+                "/projects?page=2&per_page=100"));
+    }
+
+    @Test
+    public void empty() throws Exception {
+        serve(0);
+        assertThat(new PagedIterable<>(api, "/projects", String[].class).iterator().hasNext(), is(false));
+        assertThat(requested, contains("/projects?page=1&per_page=100"));
+    }
+
+    @Test
+    public void queryParameters() throws Exception {
+        serve(1);
+        assertThat(count(new PagedIterable<>(api, "/projects?archived=false", String[].class)), is(1));
+        assertThat(requested, contains("/projects?archived=false&page=1&per_page=100"));
+    }
+
+    @Test
+    public void stopsEarly() throws Exception {
+        serve(1000);
+        Iterator<String> iterator = new PagedIterable<>(api, "/projects", String[].class).iterator();
+        assertThat(iterator.next(), is("item0"));
+        // at most the page after the current one is fetched ahead
+        assertThat(requested.get(0), is("/projects?page=1&per_page=100"));
+        assertThat(requested.size() <= 2, is(true));
+    }
+
+    @Test
+    public void nothingFetchedUntilIterated() throws Exception {
+        serve(1);
+        new PagedIterable<>(api, "/projects", String[].class).iterator();
+        assertThat(requested.isEmpty(), is(true));
+    }
+
+    @Test
+    public void failure() throws Exception {
+        IOException failure = new IOException("boom");
+        serve(1000, 2, failure);
+        Iterator<String> iterator = new PagedIterable<>(api, "/projects", String[].class).iterator();
+        for (int i = 0; i < PagedIterable.PER_PAGE; i++) {
+            assertThat(iterator.next(), is("item" + i));
+        }
+        try {
+            iterator.hasNext();
+            fail("the failure fetching the second page should surface");
+        } catch (PagedIterable.FetchException e) {
+            assertThat(e.getCause(), sameInstance(failure));
+        }
+    }
+
+    @Test
+    public void closeCancelsPrefetch() throws Exception {
+        CountDownLatch fetching = new CountDownLatch(1);
+        CountDownLatch cancelled = new CountDownLatch(1);
+        serveBlocking(fetching, cancelled);
+        PagedIterable<String> listing = new PagedIterable<>(api, "/projects", String[].class);
+        listing.iterator().next();
+        assertThat(fetching.await(10, TimeUnit.SECONDS), is(true));
+        listing.close();
+        assertThat(cancelled.await(10, TimeUnit.SECONDS), is(true));
+    }
+
+    @Test
+    public void interrupted() throws Exception {
+        CountDownLatch fetching = new CountDownLatch(1);
+        CountDownLatch cancelled = new CountDownLatch(1);
+        serveBlocking(fetching, cancelled);
+        Iterator<String> iterator = new PagedIterable<>(api, "/projects", String[].class).iterator();
+        for (int i = 0; i < PagedIterable.PER_PAGE; i++) {
+            iterator.next();
+        }
+        assertThat(fetching.await(10, TimeUnit.SECONDS), is(true));
+        Thread.currentThread().interrupt();
+        try {
+            iterator.hasNext();
+            fail("the interrupt should surface");
+        } catch (PagedIterable.FetchException e) {
+            assertThat(e.isInterrupted(), is(true));
+            try {
+                throw e.rethrow();
+            } catch (InterruptedException expected) {
+                assertThat(expected.getCause(), instanceOf(InterruptedIOException.class));
+            }
+        }
+        assertThat(Thread.interrupted(), is(false));
+        assertThat(cancelled.await(10, TimeUnit.SECONDS), is(true));
+    }
+
+    @Test
+    public void failureIsNotAnInterrupt() throws Exception {
+        IOException failure = new SocketTimeoutException("slow");
+        serve(1, 1, failure);
+        try {
+            new PagedIterable<>(api, "/projects", String[].class).iterator().hasNext();
+            fail("the failure should surface");
+        } catch (PagedIterable.FetchException e) {
+            assertThat(e.isInterrupted(), is(false));
+            assertThat(e.rethrow(), sameInstance(failure));
+        }
+    }
+}
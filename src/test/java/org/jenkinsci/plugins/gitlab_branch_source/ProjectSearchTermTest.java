@@ -0,0 +1,80 @@
+package org.jenkinsci.plugins.gitlab_branch_source;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class ProjectSearchTermTest {
+
+    private static void assertTerm(String regex, String term) {
+        assertThat(regex, GitLabSCMNavigator.projectSearchTerm(regex), is(term));
+    }
+
+    private static void assertNoTerm(String regex) {
+        assertThat(regex, GitLabSCMNavigator.projectSearchTerm(regex), nullValue());
+    }
+
+    @Test
+    public void literals() {
+        assertTerm("service-.*", "service-");
+        assertTerm(".*-service", "-service");
+        assertTerm("^my_project$", "my_project");
+        assertNoTerm(".*");
+        assertNoTerm("ab.*");
+    }
+
+    @Test
+    public void escapes() {
+        assertTerm("foo\\.bar.*", "foo.bar");
+        assertTerm("\\d+-api", "-api");
+        assertTerm("\\w+service", "service");
+        assertTerm("ab\\sdefg", "defg");
+    }
+
+    @Test
+    public void classes() {
+        assertTerm("[a-z]+-service", "-service");
+        assertTerm("svc[0-9]abcd", "abcd");
+        assertTerm("ab[\\]x]cdef", "cdef");
+    }
+
+    @Test
+    public void groups() {
+        assertTerm("(foo)?barbaz", "barbaz");
+        assertTerm("abc(def)+", "abc");
+        assertTerm("(?!x)payments.*", "payments");
+        assertTerm("(?:api-)?gateway", "gateway");
+    }
+
+    @Test
+    public void quantifiers() {
+        assertTerm("abcd?ef", "abc");
+        assertTerm("ab*cdef", "cdef");
+        assertTerm("abc+def", "abc");
+        assertTerm("x{2}yyyy", "yyyy");
+        assertTerm("release{1000}", "releas");
+        assertNoTerm("ab{12345}");
+    }
+
+    @Test
+    public void alternatives() {
+        assertNoTerm("foo|bar");
+        assertNoTerm("team-(alpha|beta)");
+    }
+
+    @Test
+    public void flags() {
+        // GitLab would be told a term of a different case, or one with whitespace that (?x) ignores
+        assertNoTerm("(?i)Service.*");
+        assertNoTerm("(?x) my service");
+        assertNoTerm("(?i:abc)def");
+        assertNoTerm("(?-i)service");
+    }
+
+    @Test
+    public void quoted() {
+        assertNoTerm("\\Qa.b(c\\E-service");
+    }
+}
@@ -0,0 +1,105 @@
+package org.jenkinsci.plugins.gitlab_branch_source;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class RawBlobStreamTest {
+
+    private HttpURLConnection connection;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    @Before
+    public void mockConnection() {
+        connection = mock(HttpURLConnection.class);
+    }
+
+    @After
+    public void clearInterrupt() {
+        Thread.interrupted();
+    }
+
+    private RawBlobStream stream(int size, long maxBytes) {
+        InputStream in = new ByteArrayInputStream(new byte[size]) {
+            @Override
+            public void close() throws IOException {
+                closed.set(true);
+                super.close();
+            }
+        };
+        return new RawBlobStream(connection, in, "Jenkinsfile", maxBytes);
+    }
+
+    private static long drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[4];
+        long total = 0;
+        int n;
+        while ((n = in.read(buffer)) >= 0) {
+            total += n;
+        }
+        return total;
+    }
+
+    @Test
+    public void readToTheEnd() throws Exception {
+        RawBlobStream in = stream(10, 10);
+        assertThat(drain(in), is(10L));
+        in.close();
+        assertThat(closed.get(), is(true));
+        // the connection can be reused
+        verify(connection, never()).disconnect();
+    }
+
+    @Test
+    public void sizeCap() throws Exception {
+        RawBlobStream in = stream(10, 5);
+        try {
+            drain(in);
+            fail("more than the limit should not be read");
+        } catch (IOException e) {
+            assertThat(e instanceof InterruptedIOException, is(false));
+        }
+        assertThat(closed.get(), is(true));
+        verify(connection).disconnect();
+    }
+
+    @Test
+    public void interrupted() throws Exception {
+        RawBlobStream in = stream(10, 10);
+        assertThat(in.read(), is(0));
+        Thread.currentThread().interrupt();
+        try {
+            in.read();
+            fail("reading should give up once interrupted");
+        } catch (InterruptedIOException e) {
+            // expected
+        }
+        // still there for the caller to notice
+        assertThat(Thread.currentThread().isInterrupted(), is(true));
+        assertThat(closed.get(), is(true));
+        verify(connection).disconnect();
+    }
+
+    @Test
+    public void closeBeforeEnd() throws Exception {
+        RawBlobStream in = stream(10, 10);
+        assertThat(in.read(new byte[4], 0, 4), is(4));
+        in.close();
+        assertThat(closed.get(), is(true));
+        verify(connection).disconnect();
+    }
+}
@@ -0,0 +1,157 @@
+package org.jenkinsci.plugins.gitlab_branch_source;
+
+import jenkins.scm.api.SCMFile;
+import jenkins.scm.api.SCMProbeStat;
+import org.gitlab.api.models.GitlabRepositoryTree;
+import org.junit.Test;
+
+import java.io.FileNotFoundException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class TreeSnapshotTest {
+
+    static GitlabRepositoryTree entry(String path, String type, String mode, String id) {
+        GitlabRepositoryTree entry = new GitlabRepositoryTree();
+        entry.setPath(path);
+        entry.setName(path.substring(path.lastIndexOf('/') + 1));
+        entry.setType(type);
+        entry.setMode(mode);
+        entry.setId(id);
+        return entry;
+    }
+
+    private static TreeSnapshot snapshot(GitlabRepositoryTree... entries) {
+        TreeSnapshot snapshot = TreeSnapshot.build(Arrays.asList(entries), 100);
+        assertThat(snapshot, notNullValue());
+        return snapshot;
+    }
+
+    @Test
+    public void stat() {
+        TreeSnapshot snapshot = snapshot(
+                entry("Jenkinsfile", "blob", "100644", "b1"),
+                entry("src", "tree", "040000", "t1"),
+                entry("src/Main.java", "blob", "100644", "b2"));
+        assertThat(snapshot.stat("Jenkinsfile").getType(), is(SCMFile.Type.REGULAR_FILE));
+        assertThat(snapshot.stat("src").getType(), is(SCMFile.Type.DIRECTORY));
+        assertThat(snapshot.stat("src/Main.java").getType(), is(SCMFile.Type.REGULAR_FILE));
+        assertThat(snapshot.stat("pom.xml").getType(), is(SCMFile.Type.NONEXISTENT));
+        assertThat(snapshot.stat("lib/Main.java").getType(), is(SCMFile.Type.NONEXISTENT));
+    }
+
+    @Test
+    public void alternativePath() {
+        TreeSnapshot snapshot = snapshot(
+                entry("src", "tree", "040000", "t1"),
+                entry("src/jenkinsfile", "blob", "100644", "b1"));
+        SCMProbeStat stat = snapshot.stat("src/Jenkinsfile");
+        assertThat(stat.getType(), is(SCMFile.Type.NONEXISTENT));
+        assertThat(stat.getAlternativePath(), is("src/jenkinsfile"));
+    }
+
+    @Test
+    public void sameKindsAsDirectoryListing() {
+        GitlabRepositoryTree[] entries = {
+                entry("link", "blob", "120000", "b1"),
+                entry("module", "commit", "160000", "c1"),
+                entry("odd", "other", "120000", "o1")
+        };
+        TreeSnapshot snapshot = snapshot(entries);
+        DirectoryListing listing = new DirectoryListing(Arrays.asList(entries));
+        for (String path : new String[]{"link", "module", "odd"}) {
+            assertThat(path, snapshot.stat(path).getType(), is(listing.stat(path).getType()));
+        }
+        assertThat(snapshot.type("link"), is(SCMFile.Type.REGULAR_FILE));
+        assertThat(snapshot.type("module"), is(SCMFile.Type.OTHER));
+        assertThat(snapshot.type("odd"), is(SCMFile.Type.LINK));
+    }
+
+    @Test
+    public void entriesBeforeTheirDirectory() throws Exception {
+        TreeSnapshot snapshot = snapshot(
+                entry("a/b/c.txt", "blob", "100644", "b1"),
+                entry("a", "tree", "040000", "t1"),
+                entry("a/b", "tree", "040000", "t2"));
+        assertThat(snapshot.type("a/b"), is(SCMFile.Type.DIRECTORY));
+        assertThat(snapshot.children("a").keySet(), contains("b"));
+        assertThat(snapshot.children("a/b").keySet(), contains("c.txt"));
+        assertThat(snapshot.children("").keySet(), contains("a"));
+    }
+
+    @Test
+    public void children() throws Exception {
+        TreeSnapshot snapshot = snapshot(
+                entry("b.txt", "blob", "100644", "b1"),
+                entry("a", "tree", "040000", "t1"),
+                entry("a/x", "blob", "100644", "b2"));
+        assertThat(snapshot.children("").keySet(), contains("a", "b.txt"));
+        assertThat(snapshot.children("").get("a"), is(TreeSnapshot.Kind.TREE));
+        assertThat(snapshot.children("").get("b.txt"), is(TreeSnapshot.Kind.BLOB));
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void childrenOfFile() throws Exception {
+        snapshot(entry("b.txt", "blob", "100644", "b1")).children("b.txt");
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void childrenOfMissing() throws Exception {
+        snapshot(entry("b.txt", "blob", "100644", "b1")).children("a");
+    }
+
+    @Test
+    public void blobId() {
+        TreeSnapshot snapshot = snapshot(
+                entry("a", "tree", "040000", "t1"),
+                entry("a/x", "blob", "100644", "b1"));
+        assertThat(snapshot.blobId("a/x"), is("b1"));
+        assertThat(snapshot.blobId("a"), nullValue());
+        assertThat(snapshot.blobId("a/y"), nullValue());
+    }
+
+    @Test
+    public void submodule() throws Exception {
+        TreeSnapshot snapshot = snapshot(
+                entry(".gitmodules", "blob", "100644", "b1"),
+                entry("lib", "tree", "040000", "t1"),
+                entry("lib/module", "commit", "160000", "c1"));
+        assertThat(snapshot.type("lib/module"), is(SCMFile.Type.OTHER));
+        assertThat(snapshot.stat("lib/module").getType(), is(SCMFile.Type.OTHER));
+        assertThat(snapshot.children("lib").get("module"), is(TreeSnapshot.Kind.OTHER));
+        // the id is that of a commit in another repository, there is no blob to read
+        assertThat(snapshot.blobId("lib/module"), nullValue());
+        assertThat(snapshot.blobId(".gitmodules"), is("b1"));
+    }
+
+    @Test
+    public void blobIdOnlyOfBlobs() {
+        TreeSnapshot snapshot = snapshot(entry("odd", "other", "120000", "o1"));
+        assertThat(snapshot.type("odd"), is(SCMFile.Type.LINK));
+        assertThat(snapshot.blobId("odd"), nullValue());
+    }
+
+    @Test
+    public void tooManyEntries() {
+        assertThat(TreeSnapshot.build(Arrays.asList(
+                entry("a", "blob", "100644", "b1"),
+                entry("b", "blob", "100644", "b2")), 1), nullValue());
+    }
+
+    @Test
+    public void recursive() {
+        assertThat(snapshot(entry("a", "tree", "040000", "t1"), entry("a/x", "blob", "100644", "b1"))
+                .isRecursive(), is(true));
+        // only the top level directory, as listed by servers that ignore recursive=true
+        assertThat(snapshot(entry("a", "tree", "040000", "t1"), entry("x", "blob", "100644", "b1"))
+                .isRecursive(), is(false));
+        assertThat(snapshot(entry("x", "blob", "100644", "b1")).isRecursive(), is(true));
+        assertThat(TreeSnapshot.build(Collections.<GitlabRepositoryTree>emptyList(), 1).isRecursive(), is(true));
+    }
+}